@@ -0,0 +1,25 @@
+package io.github.pmcarpan.sudoku;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// runs the benchmarks with the settings of their annotations 
+// and writes the results as JSON, for comparison between versions
+// must be run from the project root, as the benchmarks read puzzles/ and images/
+// usage: BenchmarkRunner [benchmark regex] [result file]
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "io\\.github\\.pmcarpan\\.sudoku\\..*Benchmarks")
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 1 ? args[1] : "jmh-result.json")
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,165 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// latency of the individual SudokuExtractor stages on the bundled images
+// the inputs of every stage are computed once in setUp, 
+// and the outputs are written to the same Mats on every invocation
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExtractorBenchmarks {
+
+    private static final int LARGE_SCALE = 4;
+
+    @Param({"images/sudokubig.jpg", "images/sudoku3.jpg", "images/sudoku89.jpg"})
+    public String image;
+
+    private Mat sudoku, preprocessedImage, mask, verticalLines, horizontalLines, intersections;
+    // the image enlarged LARGE_SCALE times, like a photo from a high resolution camera
+    private Mat large;
+    private Point[] intersectionPoints;
+
+    private Mat output;
+    private final ExtractorOptions perCellOcr = new ExtractorOptions().setBatchOcr(false);
+    private final ExtractorOptions perCellWarp = new ExtractorOptions().setWarpMethod(ExtractorOptions.WarpMethod.PER_CELL);
+    private final ExtractorOptions scaled = new ExtractorOptions().setDetectionSize(ExtractorOptions.DEFAULT_DETECTION_SIZE);
+    private final ExtractorOptions contours = new ExtractorOptions(),
+            hough = new ExtractorOptions().setGridMethod(ExtractorOptions.GridMethod.HOUGH);
+
+    @Setup
+    public void setUp() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        sudoku = Imgcodecs.imread(image, 0);
+
+        preprocessedImage = new Mat();
+        SudokuExtractor.preprocess(sudoku, preprocessedImage);
+
+        mask = new Mat();
+        SudokuExtractor.generateMask(preprocessedImage, mask);
+
+        verticalLines = new Mat();
+        horizontalLines = new Mat();
+        SudokuExtractor.generateGridLines(preprocessedImage, mask, verticalLines, 1, 0, 3, 13);
+        SudokuExtractor.generateGridLines(preprocessedImage, mask, horizontalLines, 0, 1, 13, 3);
+
+        intersections = new Mat();
+        SudokuExtractor.getIntersections(verticalLines, horizontalLines, intersections);
+
+        // throws IllegalStateException if the grid is not detected in the image
+        intersectionPoints = SudokuExtractor.getIntersectionPoints(intersections);
+
+        large = new Mat();
+        Imgproc.resize(sudoku, large, new Size(), LARGE_SCALE, LARGE_SCALE, Imgproc.INTER_CUBIC);
+
+        // created here, the native library is not loaded before setUp
+        output = new Mat();
+    }
+
+    @Benchmark
+    public Mat preprocess() {
+        SudokuExtractor.preprocess(sudoku, output);
+        return output;
+    }
+
+    @Benchmark
+    public Mat generateMask() {
+        SudokuExtractor.generateMask(preprocessedImage, output);
+        return output;
+    }
+
+    @Benchmark
+    public Mat generateMaskFloodFill() {
+        SudokuExtractor.generateMask(preprocessedImage, output, ExtractorOptions.MaskMethod.FLOOD_FILL);
+        return output;
+    }
+
+    @Benchmark
+    public Mat generateVerticalGridLines() {
+        SudokuExtractor.generateGridLines(preprocessedImage, mask, output, 1, 0, 3, 13);
+        return output;
+    }
+
+    @Benchmark
+    public Mat generateHorizontalGridLines() {
+        SudokuExtractor.generateGridLines(preprocessedImage, mask, output, 0, 1, 13, 3);
+        return output;
+    }
+
+    @Benchmark
+    public Point[] getIntersectionPoints() {
+        return SudokuExtractor.getIntersectionPoints(intersections);
+    }
+
+    // the whole grid detection (mask, lines and intersections) with both grid methods
+    @Benchmark
+    public Point[] locateGrid() {
+        return SudokuExtractor.locateGrid(preprocessedImage, contours);
+    }
+
+    @Benchmark
+    public Point[] locateGridHough() {
+        return SudokuExtractor.locateGrid(preprocessedImage, hough);
+    }
+
+    @Benchmark
+    public Mat rectify() {
+        SudokuExtractor.rectify(preprocessedImage, intersectionPoints, output);
+        return output;
+    }
+
+    @Benchmark
+    public Mat[] getCells() {
+        return SudokuExtractor.getCells(preprocessedImage, intersectionPoints);
+    }
+
+    @Benchmark
+    public Mat[] getCellsPerCellWarp() {
+        return SudokuExtractor.getCells(preprocessedImage, intersectionPoints, perCellWarp);
+    }
+
+    // locating the grid in the large image at full resolution and in pyramid mode
+    @Benchmark
+    public Point[] locateGridLarge() {
+        SudokuExtractor.preprocess(large, output);
+        return SudokuExtractor.locateGrid(output, contours);
+    }
+
+    @Benchmark
+    public Point[] locateGridScaledLarge() {
+        return SudokuExtractor.locateGridScaled(large, scaled);
+    }
+
+    @Benchmark
+    public int[][] getSudokuArray() {
+        return SudokuExtractor.getSudokuArray(preprocessedImage, intersectionPoints);
+    }
+
+    @Benchmark
+    public int[][] getSudokuArrayPerCellOcr() {
+        return SudokuExtractor.getSudokuArray(preprocessedImage, intersectionPoints, perCellOcr);
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// solver throughput and latency on the 9 x 9 puzzle sets in puzzles/
+// every invocation solves the next puzzle of the set, so the scores 
+// are averages over the whole set
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class SolverBenchmarks {
+
+    @Param({"easy", "hard", "pathological"})
+    public String set;
+
+    @Param({"BACKTRACKING", "CONSTRAINT_PROPAGATION", "PARALLEL", "ITERATIVE", "DANCING_LINKS"})
+    public SolverEngine engine;
+
+    private List<int[][]> puzzles;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        puzzles = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get("puzzles/9x9-" + set + ".txt"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    puzzles.add(PuzzleFormat.parse(line));
+            }
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean solve() {
+        int[][] puzzle = puzzles.get(next);
+        next = (next + 1) % puzzles.size();
+        return engine.create(puzzle).solve();
+    }
+
+}
@@ -0,0 +1,360 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+// extracts and solves a batch of images in a pipeline of stages, each with its own threads:
+// decode, detect (grid and cells, see SudokuExtractor.extractCells), recognize and solve
+// the stages are joined by bounded queues, so a slow stage makes the ones before it wait
+// instead of filling the memory with decoded images
+// every image gives one JSON line, in the order the images finish, e.g.
+// {"index":0,"image":"images/sudokubig.jpg","puzzle":"...6.47..","solution":"583694721...","ms":412.3}
+// {"index":1,"image":"images/blurry.jpg","stage":"detect","error":"Detected 96 points. Required 100.","ms":95.0}
+// the solution is NOT SOLVABLE if the puzzle has none, with "unresolved":true when the validation
+// could not make the recognized digits consistent (see ExtractorOptions.setValidated)
+// an image that fails gets its line and does not stop the others
+// usage: BatchExtractor <directory | image list> <output file> [engine]
+// the list has one image path per line, anything after the path is ignored (e.g. puzzles/images.txt)
+// -Dsudoku.metrics=true prints the time of every stage at the end
+public class BatchExtractor {
+
+    // images waiting per thread of the next stage
+    private static final int QUEUE_PER_THREAD = 2;
+
+    private final ExtractorOptions options;
+    private final SolverEngine engine;
+    private final int decodeThreads, detectThreads, recognizeThreads, solveThreads;
+
+    // an image on its way through the stages
+    private static class Job {
+        final int index;
+        final String path;
+        final long start = System.nanoTime();
+
+        Mat image;
+        Mat[] cells;
+        int[][] puzzle;
+        String solution;
+        // validated puzzle without a solution, left as read
+        boolean unresolved;
+
+        // the stage that failed and why, null while the job is fine
+        String failedStage, error;
+
+        Job(int index, String path) {
+            this.index = index;
+            this.path = path;
+        }
+
+        void release() {
+            if (image != null)
+                image.release();
+            if (cells != null)
+                for (Mat cell : cells)
+                    if (cell != null)
+                        cell.release();
+            image = null;
+            cells = null;
+        }
+    }
+
+    // marks the end of the images in a queue
+    private static final Job END = new Job(-1, null);
+
+    // the threads of a stage take jobs from in, work on them and put them into out
+    // the last thread to see END passes it on
+    private static class Stage {
+        private final String name;
+        private final BlockingQueue<Job> in, out;
+        private final Consumer<Job> work;
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicInteger running;
+
+        Stage(String name, int threadCount, BlockingQueue<Job> in, BlockingQueue<Job> out, Consumer<Job> work) {
+            this.name = name;
+            this.in = in;
+            this.out = out;
+            this.work = work;
+            running = new AtomicInteger(threadCount);
+            for (int k = 0; k < threadCount; k++) {
+                Thread thread = new Thread(this::run, "batch-" + name + "-" + k);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+        }
+
+        void start() {
+            for (Thread thread : threads)
+                thread.start();
+        }
+
+        void interrupt() {
+            for (Thread thread : threads)
+                thread.interrupt();
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    Job job = in.take();
+                    if (job == END) {
+                        // for the other threads of the stage
+                        in.put(END);
+                        if (running.decrementAndGet() == 0)
+                            out.put(END);
+                        return;
+                    }
+
+                    if (job.failedStage == null) {
+                        try {
+                            work.accept(job);
+                        }
+                        // LinkageError if a recognizer cannot load its native library
+                        // (e.g. SingleDigitOCR.getInstance without Tesseract)
+                        catch (RuntimeException | LinkageError e) {
+                            job.failedStage = name;
+                            job.error = e.getMessage() != null ? e.getMessage() : e.toString();
+                            job.release();
+                        }
+                    }
+                    out.put(job);
+                }
+            }
+            catch (InterruptedException e) {
+                // the batch was abandoned
+            }
+        }
+    }
+
+    // throws IllegalArgumentException if options or engine is null or a thread count is not positive
+    public BatchExtractor(ExtractorOptions options, SolverEngine engine, int decodeThreads,
+                          int detectThreads, int recognizeThreads, int solveThreads) {
+        if (options == null)
+            throw new IllegalArgumentException("options are NULL");
+        if (engine == null)
+            throw new IllegalArgumentException("Engine is null");
+        if (decodeThreads < 1 || detectThreads < 1 || recognizeThreads < 1 || solveThreads < 1)
+            throw new IllegalArgumentException("Thread counts must be positive");
+
+        SudokuExtractor.loadLibrary();
+        this.options = options;
+        this.engine = engine;
+        this.decodeThreads = decodeThreads;
+        this.detectThreads = detectThreads;
+        this.recognizeThreads = recognizeThreads;
+        this.solveThreads = solveThreads;
+    }
+
+    // returns the number of images that failed
+    // the lines are written as the images finish, and flushed whenever no other image is ready
+    public int extract(List<String> images, Writer out) throws IOException {
+        BlockingQueue<Job> toDecode = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * decodeThreads),
+                toDetect = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * detectThreads),
+                toRecognize = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * recognizeThreads),
+                toSolve = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * solveThreads),
+                done = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * solveThreads);
+
+        Stage[] stages = {
+            new Stage("decode", decodeThreads, toDecode, toDetect, this::decode),
+            new Stage("detect", detectThreads, toDetect, toRecognize, this::detect),
+            new Stage("recognize", recognizeThreads, toRecognize, toSolve, this::recognize),
+            new Stage("solve", solveThreads, toSolve, done, this::solve)
+        };
+
+        Thread feeder = new Thread(() -> {
+            try {
+                for (int index = 0; index < images.size(); index++)
+                    toDecode.put(new Job(index, images.get(index)));
+                toDecode.put(END);
+            }
+            catch (InterruptedException e) {
+                // the batch was abandoned
+            }
+        }, "batch-feeder");
+        feeder.setDaemon(true);
+
+        int failed = 0;
+        try {
+            feeder.start();
+            for (Stage stage : stages)
+                stage.start();
+
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                Job job = done.take();
+                if (job == END)
+                    break;
+
+                if (job.failedStage != null)
+                    failed++;
+
+                sb.setLength(0);
+                appendJson(job, sb);
+                out.write(sb.toString());
+                if (done.isEmpty())
+                    out.flush();
+            }
+            out.flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting", e);
+        }
+        finally {
+            // only does something if the batch ended early
+            feeder.interrupt();
+            for (Stage stage : stages)
+                stage.interrupt();
+        }
+
+        return failed;
+    }
+
+    private void decode(Job job) {
+        long start = options.getMetrics().start();
+        job.image = Imgcodecs.imread(job.path, 0);
+        options.getMetrics().record(PipelineMetrics.Stage.DECODE, start);
+
+        if (job.image.empty())
+            throw new IllegalArgumentException("Could not read image");
+    }
+
+    private void detect(Job job) {
+        try {
+            job.cells = SudokuExtractor.extractCells(job.image, options);
+        }
+        finally {
+            job.image.release();
+            job.image = null;
+        }
+    }
+
+    private void recognize(Job job) {
+        try {
+            job.puzzle = SudokuExtractor.recognize(job.cells, options);
+        }
+        finally {
+            job.release();
+        }
+    }
+
+    private void solve(Job job) {
+        long start = options.getMetrics().start();
+        // a puzzle read with conflicts has no solution, and some engines (BACKTRACKING)
+        // would search for one for a very long time
+        Solver solver = PuzzleFormat.hasConflict(job.puzzle) ? null : engine.create(job.puzzle);
+        boolean solved = solver != null && solver.solve();
+        job.solution = solved ? PuzzleFormat.format(solver.getBoard()) : BatchSolver.NOT_SOLVABLE;
+        job.unresolved = !solved && options.isValidated();
+        options.getMetrics().record(PipelineMetrics.Stage.SOLVE, start);
+    }
+
+    private static void appendJson(Job job, StringBuilder sb) {
+        sb.append("{\"index\":").append(job.index);
+        sb.append(",\"image\":");
+        appendJsonString(job.path, sb);
+        if (job.puzzle != null) {
+            sb.append(",\"puzzle\":");
+            appendJsonString(PuzzleFormat.format(job.puzzle), sb);
+        }
+        if (job.failedStage == null) {
+            sb.append(",\"solution\":");
+            appendJsonString(job.solution, sb);
+            if (job.unresolved)
+                sb.append(",\"unresolved\":true");
+        }
+        else {
+            sb.append(",\"stage\":");
+            appendJsonString(job.failedStage, sb);
+            sb.append(",\"error\":");
+            appendJsonString(job.error, sb);
+        }
+        sb.append(",\"ms\":").append(String.format("%.1f", (System.nanoTime() - job.start) / 1e6));
+        sb.append("}\n");
+    }
+
+    // a JSON string, escaping quotes, backslashes and control characters
+    static void appendJsonString(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    // the image files of a directory, or the first word of every line of a list
+    // empty lines and lines starting with '#' are skipped
+    static List<String> readImages(String source) throws IOException {
+        List<String> images = new ArrayList<>();
+        File file = new File(source);
+        if (file.isDirectory()) {
+            for (File image : FrameStreamExtractor.frameFiles(file))
+                images.add(image.getPath());
+            return images;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    images.add(line.split("\\s+")[0]);
+            }
+        }
+        return images;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BatchExtractor <directory | image list> <output file> [engine]");
+            return;
+        }
+
+        SolverEngine engine = args.length > 2 ? SolverEngine.fromName(args[2]) : SolverEngine.ITERATIVE;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // the images are processed in parallel, not the cells of one image
+        PipelineMetrics metrics = Boolean.getBoolean("sudoku.metrics") ? new PipelineMetrics() : PipelineMetrics.DISABLED;
+        ExtractorOptions options = new ExtractorOptions().setParallel(false).setMetrics(metrics)
+                                                         .setValidated(true);
+        // detection and recognition are the slow stages, recognition uses SingleDigitOCR's engine pools,
+        // which are only created by the first image
+        BatchExtractor batch = new BatchExtractor(options, engine, Math.max(1, cores / 2), cores,
+                                                  SingleDigitOCR.DEFAULT_ENGINES, 1);
+
+        List<String> images = readImages(args[0]);
+        long start = System.nanoTime();
+        int failed;
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            failed = batch.extract(images, out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Processed %d images (%d failed) in %.3f s (%.2f images/sec)%n",
+                          images.size(), failed, seconds, images.size() / seconds);
+        if (metrics.isEnabled())
+            System.out.println(metrics);
+    }
+
+}
@@ -0,0 +1,259 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// solves a stream of puzzles, one per line (see PuzzleFormat), on all cores
+// the input can also be a binary PuzzleStore, which is read in place
+// every puzzle gives one output line, in input order:
+// the solved puzzle, NOT SOLVABLE, or INVALID if the line cannot be parsed
+// empty lines and lines starting with '#' are skipped
+// usage: BatchSolver <input file> <output file> [engine] [threads]
+public class BatchSolver {
+
+    static final String NOT_SOLVABLE = "NOT SOLVABLE", INVALID = "INVALID";
+
+    // puzzles per task, large enough to amortize scheduling
+    private static final int CHUNK_SIZE = 256;
+    // chunks in flight per thread, bounds the memory used for reordering
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final SolverEngine engine;
+    private final int threads;
+
+    // ITERATIVE engine only: one reusable solver per worker thread and box size
+    private final ThreadLocal<IterativeSudokuSolver[]> iterativeSolvers = 
+            ThreadLocal.withInitial(() -> new IterativeSudokuSolver[SudokuSolver.MAX_BOX_SIZE + 1]);
+
+    public BatchSolver(SolverEngine engine, int threads) {
+        if (engine == null)
+            throw new IllegalArgumentException("Engine is null");
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive");
+
+        this.engine = engine;
+        this.threads = threads;
+    }
+
+    // returns the number of puzzles read
+    // at most threads * CHUNKS_PER_THREAD chunks are held in memory at a time
+    public long solve(BufferedReader in, Writer out) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<Future<String>> pending = new ArrayDeque<>();
+        long count = 0;
+
+        try {
+            String[] chunk = new String[CHUNK_SIZE];
+            int size = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                chunk[size++] = line;
+                count++;
+
+                if (size == CHUNK_SIZE) {
+                    submit(pool, pending, chunk, size, out);
+                    chunk = new String[CHUNK_SIZE];
+                    size = 0;
+                }
+            }
+            if (size > 0)
+                submit(pool, pending, chunk, size, out);
+
+            while (!pending.isEmpty())
+                out.write(await(pending.removeFirst()));
+
+            out.flush();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return count;
+    }
+
+    // solve the puzzles of a memory-mapped store, reading them in place
+    // returns the number of puzzles
+    public long solve(PuzzleStore store, Writer out) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<Future<String>> pending = new ArrayDeque<>();
+
+        try {
+            for (long first = 0; first < store.getCount(); first += CHUNK_SIZE) {
+                long start = first, end = Math.min(first + CHUNK_SIZE, store.getCount());
+                submit(pool, pending, () -> solveChunk(store, start, end), out);
+            }
+
+            while (!pending.isEmpty())
+                out.write(await(pending.removeFirst()));
+
+            out.flush();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return store.getCount();
+    }
+
+    // queue a chunk, writing finished chunks first if too many are in flight
+    private void submit(ForkJoinPool pool, Deque<Future<String>> pending, 
+                        String[] lines, int size, Writer out) throws IOException {
+        submit(pool, pending, () -> solveChunk(lines, size), out);
+    }
+
+    private void submit(ForkJoinPool pool, Deque<Future<String>> pending, 
+                        Callable<String> chunk, Writer out) throws IOException {
+        while (pending.size() >= threads * CHUNKS_PER_THREAD)
+            out.write(await(pending.removeFirst()));
+
+        pending.addLast(pool.submit(chunk));
+    }
+
+    private static String await(Future<String> result) {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Error while solving", e.getCause());
+        }
+    }
+
+    private String solveChunk(String[] lines, int size) {
+        StringBuilder sb = new StringBuilder(size * (lines[0].length() + 1));
+        for (int i = 0; i < size; i++) {
+            if (engine == SolverEngine.ITERATIVE)
+                solveLineReusing(lines[i], sb);
+            else
+                sb.append(solveLine(lines[i]));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String solveChunk(PuzzleStore store, long start, long end) {
+        int cells = store.getBoxSize() * store.getBoxSize() * store.getBoxSize() * store.getBoxSize();
+        StringBuilder sb = new StringBuilder((int) (end - start) * (cells + 1));
+        for (long index = start; index < end; index++) {
+            ByteBuffer buffer = store.bufferFor(index);
+            int offset = store.offsetOf(index);
+            try {
+                Solver solver;
+                if (engine == SolverEngine.ITERATIVE) {
+                    IterativeSudokuSolver iterative = iterativeSolver(store.getBoxSize());
+                    iterative.reset(buffer, offset, store.getFormat());
+                    solver = iterative;
+                }
+                else {
+                    solver = engine.create(buffer, offset, store.getFormat(), store.getBoxSize());
+                }
+
+                if (!solver.solve())
+                    sb.append(NOT_SOLVABLE);
+                else if (solver instanceof IterativeSudokuSolver)
+                    ((IterativeSudokuSolver) solver).appendTo(sb);
+                else
+                    sb.append(PuzzleFormat.format(solver.getBoard()));
+            }
+            catch (IllegalArgumentException e) {
+                sb.append(INVALID);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    // a line the engine rejects is INVALID, so it does not stop the batch
+    String solveLine(String line) {
+        Solver solver;
+        try {
+            solver = engine.create(PuzzleFormat.parse(line));
+        }
+        catch (IllegalArgumentException e) {
+            return INVALID;
+        }
+
+        return solver.solve() ? PuzzleFormat.format(solver.getBoard()) : NOT_SOLVABLE;
+    }
+
+    // solve with the worker's reusable solver, without an int[][] per puzzle
+    private void solveLineReusing(String line, StringBuilder out) {
+        IterativeSudokuSolver solver;
+        try {
+            int boxSize = (int) Math.round(Math.sqrt(PuzzleFormat.sideLength(line.length())));
+            solver = iterativeSolver(boxSize);
+            solver.reset(line);
+        }
+        catch (IllegalArgumentException e) {
+            out.append(INVALID);
+            return;
+        }
+
+        if (solver.solve())
+            solver.appendTo(out);
+        else
+            out.append(NOT_SOLVABLE);
+    }
+
+    private IterativeSudokuSolver iterativeSolver(int boxSize) {
+        IterativeSudokuSolver[] solvers = iterativeSolvers.get();
+        if (solvers[boxSize] == null)
+            solvers[boxSize] = new IterativeSudokuSolver(boxSize);
+        return solvers[boxSize];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BatchSolver <input file> <output file> [engine] [threads]");
+            return;
+        }
+
+        SolverEngine engine = args.length > 2 ? SolverEngine.fromName(args[2]) 
+                                              : SolverEngine.ITERATIVE;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) 
+                                       : Runtime.getRuntime().availableProcessors();
+
+        BatchSolver batchSolver = new BatchSolver(engine, threads);
+
+        long start = System.nanoTime();
+        long count;
+        Path input = Paths.get(args[0]);
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.US_ASCII)) {
+            if (PuzzleStore.isStore(input)) {
+                try (PuzzleStore store = new PuzzleStore(input)) {
+                    count = batchSolver.solve(store, out);
+                }
+            }
+            else {
+                try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.US_ASCII)) {
+                    count = batchSolver.solve(in, out);
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Processed %d puzzles in %.3f s (%.1f puzzles/sec) with %d threads%n", 
+                          count, seconds, count / seconds, threads);
+    }
+
+}
@@ -0,0 +1,128 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// thread safe map of at most maxEntries entries, each kept for at most ttl after it was put
+// when full, the least recently used entry is evicted
+// expired entries are dropped when they are looked up, or when a put finds them at the old end
+// the values are shared, so they should not be modified (see ResultCache)
+public class BoundedCache<K, V> {
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // in access order, the least recently used first
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits, misses, evictions, expirations;
+
+    // throws IllegalArgumentException if maxEntries or ttl is not positive, or unit is null
+    public BoundedCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Cache size must be positive");
+        if (ttl < 1 || unit == null)
+            throw new IllegalArgumentException("Time to live must be positive");
+
+        this.maxEntries = maxEntries;
+        ttlNanos = unit.toNanos(ttl);
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // null if the key is not cached or has expired
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expires - System.nanoTime() <= 0) {
+            entries.remove(key);
+            expirations++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    // throws IllegalArgumentException if key or value is null
+    public synchronized void put(K key, V value) {
+        if (key == null || value == null)
+            throw new IllegalArgumentException("Key and value must not be null");
+
+        long now = System.nanoTime();
+        entries.put(key, new Entry<>(value, now + ttlNanos));
+
+        // the oldest entries are the ones most likely to have expired
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> oldest = it.next();
+            if (oldest.expires - now <= 0) {
+                it.remove();
+                expirations++;
+            }
+            else if (entries.size() > maxEntries) {
+                it.remove();
+                evictions++;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    // entries removed to make room for new ones
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    // entries removed because their time to live was over
+    public synchronized long getExpirationCount() {
+        return expirations;
+    }
+
+    // the counts as a JSON object
+    public synchronized String toJson() {
+        return String.format("{\"size\":%d,\"maxEntries\":%d,\"hits\":%d,\"misses\":%d,\"evictions\":%d,\"expirations\":%d}",
+                             entries.size(), maxEntries, hits, misses, evictions, expirations);
+    }
+
+    public synchronized String toString() {
+        return String.format("BoundedCache[size=%d/%d, hits=%d, misses=%d, evictions=%d, expirations=%d]",
+                             entries.size(), maxEntries, hits, misses, evictions, expirations);
+    }
+
+}
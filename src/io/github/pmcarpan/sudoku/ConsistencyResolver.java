@@ -0,0 +1,283 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+// turns the readings of the cells of a 9 x 9 puzzle (see DigitReading) into a puzzle
+// without conflicts that has a single solution, changing as few and as unsure cells as it can
+// a puzzle with several solutions is not accepted either, as a misread digit can leave
+// one that is solvable but not the printed one
+// the suspect cells are the ones with the same digit as another cell of their row, column or box,
+// and the ones without a digit, then if that is not enough (e.g. the puzzle has no conflicts
+// but no single solution), also the MAX_SUSPECTS least confident cells
+// the suspects are read again (if the caller can), then their digits are substituted,
+// trying the most confident combinations of the alternatives first
+// a digit a suspect was not read as is tried after its alternatives, the digit it has
+// in the solution of the puzzle without the suspects first
+// a misread cell that leaves the puzzle without conflicts and with a single solution is not noticed
+// if no such puzzle is found within MAX_ATTEMPTS and MAX_COMBINATIONS (e.g. too many misreads),
+// the digits as read are returned, so they still have a conflict, or no single solution
+// the puzzles are checked with an IterativeSudokuSolver, which propagates singles, so an
+// unsolvable candidate is rejected quickly, whatever engine solves the result
+// not thread safe, the solver is reused for every check
+// e.g.
+//     int[][] puzzle = new ConsistencyResolver().resolve(readings, null, metrics);
+public class ConsistencyResolver {
+
+    // suspects of a puzzle without conflicts that has no single solution
+    private static final int MAX_SUSPECTS = 6;
+    // puzzles without conflicts solved before giving up, and combinations looked at
+    private static final int MAX_ATTEMPTS = 64, MAX_COMBINATIONS = 10000;
+    // confidence of a digit that is not in the reading of a cell, and of the one from the
+    // solution of the puzzle without the suspects
+    private static final double UNREAD_CONFIDENCE = 0.001, HINT_CONFIDENCE = 0.01;
+
+    private static final int SIZE = 9, BOX_SIZE = 3, CELLS = SIZE * SIZE;
+
+    private final IterativeSudokuSolver solver = new IterativeSudokuSolver(BOX_SIZE);
+
+    // a combination of digits for the suspects, cost is the sum of -log(confidence)
+    private static class Combination {
+        final int[] choices;
+        final double cost;
+
+        Combination(int[] choices, double cost) {
+            this.choices = choices;
+            this.cost = cost;
+        }
+    }
+
+    // readings holds the 81 cells in row-major order, null for blank cells
+    // reader reads a cell again in another way (e.g. alone instead of with the others), null for none
+    // the new reading is merged with the first (see DigitReading.merge)
+    // the digits as read if no puzzle without conflicts that has a single solution is found,
+    // counted as PUZZLES_UNRESOLVED
+    // throws IllegalArgumentException if readings does not have 81 cells
+    public int[][] resolve(DigitReading[] readings, IntFunction<DigitReading> reader, PipelineMetrics metrics) {
+        if (readings == null || readings.length != CELLS)
+            throw new IllegalArgumentException("Readings must have " + CELLS + " cells");
+        if (metrics == null)
+            metrics = PipelineMetrics.DISABLED;
+
+        readings = readings.clone();
+        int[] digits = new int[CELLS];
+        for (int index = 0; index < CELLS; index++)
+            digits[index] = readings[index] == null ? 0 : readings[index].getDigit();
+
+        List<Integer> suspects = conflicts(readings, digits);
+        if (suspects.isEmpty() && hasSingleSolution(digits))
+            return toBoard(digits);
+
+        // the conflicts alone, then with the least confident cells
+        boolean[] reread = new boolean[CELLS];
+        int[] resolved = null;
+        if (!suspects.isEmpty()) {
+            reread(readings, suspects, reader, reread, metrics);
+            resolved = substitute(readings, digits, suspects);
+        }
+        if (resolved == null) {
+            int conflicts = suspects.size();
+            for (int index : leastConfident(readings))
+                if (!suspects.contains(index))
+                    suspects.add(index);
+            if (suspects.size() > conflicts) {
+                reread(readings, suspects, reader, reread, metrics);
+                resolved = substitute(readings, digits, suspects);
+            }
+        }
+        if (resolved == null) {
+            metrics.increment(PipelineMetrics.Counter.PUZZLES_UNRESOLVED);
+            return toBoard(digits);
+        }
+
+        int substituted = 0;
+        for (int index = 0; index < CELLS; index++)
+            if (resolved[index] != digits[index])
+                substituted++;
+        metrics.add(PipelineMetrics.Counter.CELLS_SUBSTITUTED, substituted);
+        return toBoard(resolved);
+    }
+
+    // merge the readings of the suspects with new ones from reader, if there is one,
+    // the cells already read again are not read a third time
+    private static void reread(DigitReading[] readings, List<Integer> suspects, IntFunction<DigitReading> reader, 
+                               boolean[] reread, PipelineMetrics metrics) {
+        if (reader == null)
+            return;
+
+        for (int index : suspects) {
+            if (!reread[index]) {
+                readings[index] = readings[index].merge(reader.apply(index));
+                reread[index] = true;
+                metrics.increment(PipelineMetrics.Counter.CELLS_REREAD);
+            }
+        }
+    }
+
+    // the cells without a digit, and the cells with the same digit as another in their row, column or box
+    private static List<Integer> conflicts(DigitReading[] readings, int[] digits) {
+        List<Integer> conflicts = new ArrayList<>();
+        for (int index = 0; index < CELLS; index++) {
+            if (readings[index] == null)
+                continue;
+            if (digits[index] == 0) {
+                conflicts.add(index);
+                continue;
+            }
+            for (int other = 0; other < CELLS; other++) {
+                if (other != index && digits[other] == digits[index] && isPeer(index, other)) {
+                    conflicts.add(index);
+                    break;
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    private static boolean isPeer(int a, int b) {
+        int rowA = a / SIZE, colA = a % SIZE, rowB = b / SIZE, colB = b % SIZE;
+        return rowA == rowB || colA == colB
+                || (rowA / BOX_SIZE == rowB / BOX_SIZE && colA / BOX_SIZE == colB / BOX_SIZE);
+    }
+
+    // the MAX_SUSPECTS non-blank cells with the lowest confidence
+    private static List<Integer> leastConfident(DigitReading[] readings) {
+        List<Integer> cells = new ArrayList<>();
+        for (int index = 0; index < CELLS; index++)
+            if (readings[index] != null)
+                cells.add(index);
+        cells.sort((c1, c2) -> Double.compare(readings[c1].getConfidence(), readings[c2].getConfidence()));
+        return new ArrayList<>(cells.subList(0, Math.min(MAX_SUSPECTS, cells.size())));
+    }
+
+    // the digits with the suspects substituted by the most confident combination
+    // that has no conflicts and a single solution, null if none is found
+    private int[] substitute(DigitReading[] readings, int[] digits, List<Integer> suspects) {
+        // the digits each suspect can be, most confident first, and their costs
+        int n = suspects.size();
+        int[] hints = hints(digits, suspects);
+        int[][] options = new int[n][];
+        double[][] costs = new double[n][];
+        for (int s = 0; s < n; s++) {
+            DigitReading reading = readings[suspects.get(s)];
+            int[] read = reading.getDigits();
+            double[] confidences = reading.getConfidences();
+
+            options[s] = new int[SIZE];
+            costs[s] = new double[SIZE];
+            boolean[] seen = new boolean[SIZE + 1];
+            int count = 0;
+            for (int k = 0; k < read.length; k++) {
+                options[s][count] = read[k];
+                costs[s][count++] = -Math.log(Math.max(UNREAD_CONFIDENCE, confidences[k]));
+                seen[read[k]] = true;
+            }
+            if (hints != null && !seen[hints[s]]) {
+                options[s][count] = hints[s];
+                costs[s][count++] = -Math.log(HINT_CONFIDENCE);
+                seen[hints[s]] = true;
+            }
+            for (int d = 1; d <= SIZE; d++) {
+                if (!seen[d]) {
+                    options[s][count] = d;
+                    costs[s][count++] = -Math.log(UNREAD_CONFIDENCE);
+                }
+            }
+        }
+
+        // the combinations in increasing cost, each followed by the ones choosing
+        // the next option of one suspect
+        PriorityQueue<Combination> queue = new PriorityQueue<>((c1, c2) -> Double.compare(c1.cost, c2.cost));
+        Set<String> queued = new HashSet<>();
+        int[] first = new int[n];
+        queue.add(new Combination(first, cost(costs, first)));
+        queued.add(Arrays.toString(first));
+
+        int[] candidate = digits.clone();
+        int attempts = 0;
+        for (int combinations = 0; !queue.isEmpty() && combinations < MAX_COMBINATIONS; combinations++) {
+            Combination combination = queue.poll();
+            for (int s = 0; s < n; s++)
+                candidate[suspects.get(s)] = options[s][combination.choices[s]];
+
+            if (!hasConflict(candidate)) {
+                if (hasSingleSolution(candidate))
+                    return candidate;
+                if (++attempts == MAX_ATTEMPTS)
+                    return null;
+            }
+
+            for (int s = 0; s < n; s++) {
+                if (combination.choices[s] + 1 == SIZE)
+                    continue;
+                int[] next = combination.choices.clone();
+                next[s]++;
+                if (queued.add(Arrays.toString(next)))
+                    queue.add(new Combination(next, cost(costs, next)));
+            }
+        }
+        return null;
+    }
+
+    // the digits of the suspects in a solution of the puzzle without them,
+    // null if it still has conflicts or has no solution
+    private int[] hints(int[] digits, List<Integer> suspects) {
+        int[] blanked = digits.clone();
+        for (int index : suspects)
+            blanked[index] = 0;
+        if (hasConflict(blanked))
+            return null;
+
+        solver.reset(toBoard(blanked));
+        if (!solver.solve())
+            return null;
+
+        int[][] solution = solver.getBoard();
+        int[] hints = new int[suspects.size()];
+        for (int s = 0; s < hints.length; s++)
+            hints[s] = solution[suspects.get(s) / SIZE][suspects.get(s) % SIZE];
+        return hints;
+    }
+
+    private static double cost(double[][] costs, int[] choices) {
+        double cost = 0;
+        for (int s = 0; s < choices.length; s++)
+            cost += costs[s][choices[s]];
+        return cost;
+    }
+
+    private static boolean hasConflict(int[] digits) {
+        int[] rows = new int[SIZE], columns = new int[SIZE], boxes = new int[SIZE];
+        for (int index = 0; index < CELLS; index++) {
+            if (digits[index] == 0)
+                continue;
+
+            int bit = 1 << digits[index], row = index / SIZE, col = index % SIZE;
+            int box = row / BOX_SIZE * BOX_SIZE + col / BOX_SIZE;
+            if (((rows[row] | columns[col] | boxes[box]) & bit) != 0)
+                return true;
+            rows[row] |= bit;
+            columns[col] |= bit;
+            boxes[box] |= bit;
+        }
+        return false;
+    }
+
+    private boolean hasSingleSolution(int[] digits) {
+        solver.reset(toBoard(digits));
+        return solver.countSolutions(2) == 1;
+    }
+
+    private static int[][] toBoard(int[] digits) {
+        int[][] board = new int[SIZE][SIZE];
+        for (int index = 0; index < CELLS; index++)
+            board[index / SIZE][index % SIZE] = digits[index];
+        return board;
+    }
+
+}
@@ -0,0 +1,231 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.Arrays;
+
+// Knuth's Algorithm X on an exact cover matrix, 324 columns for a 9 x 9 board
+// the links are kept in preallocated int arrays instead of node objects
+public class DancingLinksSolver implements Solver {
+
+    private static final int EMPTY = 0;
+    private static final int ROOT = 0;
+
+    private final int boxSize, length, cells;
+    // 4 constraint groups of cells columns: cell, row-digit, column-digit, grid-digit
+    private final int columns;
+
+    private final int[][] board;
+
+    // node 0 is the root, 1 to columns are the column headers
+    // followed by 4 nodes for every (row, column, digit) candidate
+    private final int[] left, right, up, down, column, candidate;
+    private final int[] size;
+    // first node of each candidate row
+    private final int[] rowStart;
+    private final boolean[] covered;
+
+    // candidate rows of the partial solution
+    private final int[] solution;
+
+    private long nodeCount;
+
+    // throws IllegalArgumentException if the board is invalid
+    // (same checks as SudokuSolver)
+    public DancingLinksSolver(int[][] board) {
+        boxSize = SudokuSolver.validate(board);
+        length = boxSize * boxSize;
+        cells = length * length;
+        columns = 4 * cells;
+
+        this.board = new int[length][];
+        for (int i = 0; i < length; i++) {
+            this.board[i] = board[i].clone();
+        }
+
+        int rows = cells * length;
+        int nodes = 1 + columns + 4 * rows;
+        left = new int[nodes];
+        right = new int[nodes];
+        up = new int[nodes];
+        down = new int[nodes];
+        column = new int[nodes];
+        candidate = new int[nodes];
+        size = new int[columns + 1];
+        rowStart = new int[rows];
+        covered = new boolean[columns + 1];
+        solution = new int[cells];
+    }
+
+    @Override
+    public boolean solve() {
+        nodeCount = 0;
+        buildMatrix();
+
+        // select the rows of the given digits
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (board[i][j] != EMPTY) {
+                    if (!select(rowStart[candidateIndex(i, j, board[i][j])]))
+                        return false; // givens conflict
+                }
+            }
+        }
+
+        return search(0);
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int[][] getBoard() {
+        int[][] copy = new int[length][];
+        for (int i = 0; i < length; i++)
+            copy[i] = board[i].clone();
+        return copy;
+    }
+
+    private int candidateIndex(int row, int col, int num) {
+        return (row * length + col) * length + (num - 1);
+    }
+
+    // link the full matrix: headers, then 4 nodes per candidate row
+    private void buildMatrix() {
+        for (int c = 0; c <= columns; c++) {
+            left[c] = c - 1;
+            right[c] = c + 1;
+            up[c] = c;
+            down[c] = c;
+            column[c] = c;
+        }
+        left[ROOT] = columns;
+        right[columns] = ROOT;
+        Arrays.fill(size, 0);
+        Arrays.fill(covered, false);
+
+        int node = columns + 1;
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < length; j++) {
+                int grid = (i / boxSize) * boxSize + j / boxSize;
+                for (int k = 1; k <= length; k++) {
+                    int r = candidateIndex(i, j, k);
+                    int first = node;
+                    rowStart[r] = first;
+
+                    // column numbers start at 1, after the root
+                    appendNode(node++, 1 + i * length + j, r);
+                    appendNode(node++, 1 + cells + i * length + (k - 1), r);
+                    appendNode(node++, 1 + 2 * cells + j * length + (k - 1), r);
+                    appendNode(node++, 1 + 3 * cells + grid * length + (k - 1), r);
+
+                    // circular row links
+                    for (int n = first; n < node; n++) {
+                        left[n] = n == first ? node - 1 : n - 1;
+                        right[n] = n == node - 1 ? first : n + 1;
+                    }
+                }
+            }
+        }
+    }
+
+    // add node at the bottom of column c
+    private void appendNode(int node, int c, int r) {
+        column[node] = c;
+        candidate[node] = r;
+        up[node] = up[c];
+        down[node] = c;
+        down[up[c]] = node;
+        up[c] = node;
+        size[c]++;
+    }
+
+    // cover all columns of a given's row
+    // returns false if one of them is already covered
+    private boolean select(int rowNode) {
+        int n = rowNode;
+        do {
+            if (covered[column[n]])
+                return false;
+            n = right[n];
+        } while (n != rowNode);
+
+        n = rowNode;
+        do {
+            cover(column[n]);
+            n = right[n];
+        } while (n != rowNode);
+        return true;
+    }
+
+    private void cover(int c) {
+        covered[c] = true;
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                size[column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c) {
+        for (int i = up[c]; i != c; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                size[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+        covered[c] = false;
+    }
+
+    private boolean search(int depth) {
+        nodeCount++;
+
+        if (right[ROOT] == ROOT) {
+            // every column covered, write the chosen candidates back
+            for (int d = 0; d < depth; d++) {
+                int r = solution[d];
+                int cell = r / length;
+                board[cell / length][cell % length] = r % length + 1;
+            }
+            return true;
+        }
+
+        // choose the column with the fewest rows
+        int c = right[ROOT];
+        for (int j = right[c]; j != ROOT; j = right[j]) {
+            if (size[j] < size[c])
+                c = j;
+        }
+
+        if (size[c] == 0)
+            return false;
+
+        cover(c);
+        for (int r = down[c]; r != c; r = down[r]) {
+            solution[depth] = candidate[r];
+            for (int j = right[r]; j != r; j = right[j])
+                cover(column[j]);
+
+            if (search(depth + 1))
+                return true;
+
+            for (int j = left[r]; j != r; j = left[j])
+                uncover(column[j]);
+        }
+        uncover(c);
+
+        return false;
+    }
+
+    public String toString() {
+        return SudokuSolver.toString(board);
+    }
+
+}
@@ -0,0 +1,94 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.Arrays;
+
+// what a DigitRecognizer read in a cell: the digits it could be, most likely first,
+// each with a confidence from 0 to 1
+// NONE is a cell in which no digit was recognized
+public class DigitReading {
+
+    public static final DigitReading NONE = new DigitReading(new int[0], new double[0]);
+
+    private final int[] digits;
+    private final double[] confidences;
+
+    // throws IllegalArgumentException if the arrays differ in length, a digit is not from 1 to 9
+    // or appears twice, or a confidence is not from 0 to 1
+    public DigitReading(int[] digits, double[] confidences) {
+        if (digits == null || confidences == null || digits.length != confidences.length)
+            throw new IllegalArgumentException("Digits and confidences must have the same length");
+
+        boolean[] seen = new boolean[10];
+        for (int k = 0; k < digits.length; k++) {
+            if (digits[k] < 1 || digits[k] > 9 || seen[digits[k]])
+                throw new IllegalArgumentException("Invalid digit: " + digits[k]);
+            if (!(confidences[k] >= 0 && confidences[k] <= 1))
+                throw new IllegalArgumentException("Invalid confidence: " + confidences[k]);
+            seen[digits[k]] = true;
+        }
+
+        // sorted by decreasing confidence, the first of equal ones stays first
+        Integer[] order = new Integer[digits.length];
+        for (int k = 0; k < order.length; k++)
+            order[k] = k;
+        Arrays.sort(order, (k1, k2) -> Double.compare(confidences[k2], confidences[k1]));
+
+        this.digits = new int[digits.length];
+        this.confidences = new double[digits.length];
+        for (int k = 0; k < order.length; k++) {
+            this.digits[k] = digits[order[k]];
+            this.confidences[k] = confidences[order[k]];
+        }
+    }
+
+    // a single digit
+    public static DigitReading of(int digit, double confidence) {
+        return new DigitReading(new int[] {digit}, new double[] {confidence});
+    }
+
+    // the most likely digit, 0 if none was recognized
+    public int getDigit() {
+        return digits.length > 0 ? digits[0] : 0;
+    }
+
+    // the confidence of getDigit, 0 if none was recognized
+    public double getConfidence() {
+        return confidences.length > 0 ? confidences[0] : 0;
+    }
+
+    // the digits, most likely first
+    public int[] getDigits() {
+        return digits.clone();
+    }
+
+    public double[] getConfidences() {
+        return confidences.clone();
+    }
+
+    // the digits of both readings, each with the larger of its confidences
+    // (e.g. a cell read again in another way), the digits of this one first when equally confident
+    public DigitReading merge(DigitReading other) {
+        int[] digits = new int[9];
+        double[] confidences = new double[9];
+        int count = 0;
+        for (DigitReading reading : new DigitReading[] {this, other}) {
+            for (int k = 0; k < reading.digits.length; k++) {
+                int index = 0;
+                while (index < count && digits[index] != reading.digits[k])
+                    index++;
+                if (index == count)
+                    digits[count++] = reading.digits[k];
+                confidences[index] = Math.max(confidences[index], reading.confidences[k]);
+            }
+        }
+        return new DigitReading(Arrays.copyOf(digits, count), Arrays.copyOf(confidences, count));
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DigitReading[");
+        for (int k = 0; k < digits.length; k++)
+            sb.append(k > 0 ? ", " : "").append(digits[k]).append(String.format("=%.2f", confidences[k]));
+        return sb.append(']').toString();
+    }
+
+}
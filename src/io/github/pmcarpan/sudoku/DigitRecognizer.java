@@ -0,0 +1,53 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+// recognizes the digit of a non-blank cell
+// the cells are single channel 8 bit crops (CV_8UC1) with a dark digit on white, 
+// as cut by SudokuExtractor
+public interface DigitRecognizer {
+
+    // expected to return digit between 1 to 9 (both inclusive)
+    // throws IllegalArgumentExcepton if cell is null, empty or not CV_8UC1
+    // throws IllegalStateException if a digit between 1 to 9 is not detected
+    int recognize(Mat cell);
+
+    // digits of many cells, in the order of cells
+    // implementations with a fixed cost per call can recognize them together
+    default int[] recognize(List<Mat> cells) {
+        if (cells == null)
+            throw new IllegalArgumentException("Cell list is null");
+
+        int[] digits = new int[cells.size()];
+        for (int k = 0; k < digits.length; k++)
+            digits[k] = recognize(cells.get(k));
+        return digits;
+    }
+
+    // the digits the cell could be with their confidences (see DigitReading),
+    // NONE instead of an IllegalStateException if no digit is recognized
+    // recognizers that cannot rank alternatives give the digit of recognize(Mat) with confidence 1
+    // throws IllegalArgumentExcepton if cell is null, empty or not CV_8UC1
+    default DigitReading read(Mat cell) {
+        try {
+            return DigitReading.of(recognize(cell), 1);
+        }
+        catch (IllegalStateException e) {
+            return DigitReading.NONE;
+        }
+    }
+
+    // readings of many cells, in the order of cells (see recognize(List))
+    default DigitReading[] read(List<Mat> cells) {
+        if (cells == null)
+            throw new IllegalArgumentException("Cell list is null");
+
+        DigitReading[] readings = new DigitReading[cells.size()];
+        for (int k = 0; k < readings.length; k++)
+            readings[k] = read(cells.get(k));
+        return readings;
+    }
+
+}
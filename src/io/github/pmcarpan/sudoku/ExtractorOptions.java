@@ -0,0 +1,168 @@
+package io.github.pmcarpan.sudoku;
+
+// settings of SudokuExtractor, the setters return this so they can be chained
+// e.g. new SudokuExtractor(path, new ExtractorOptions().setBatchOcr(false))
+public class ExtractorOptions {
+
+    // how generateMask finds the largest black area of the thresholded image
+    // both give the same mask, FLOOD_FILL reads and fills the image pixel by pixel
+    public enum MaskMethod {
+        CONNECTED_COMPONENTS, FLOOD_FILL
+    }
+
+    // how the cells are cut from the preprocessed image
+    // GLOBAL remaps the whole grid once and cuts the cells as views of it,
+    // PER_CELL warps the image once per cell
+    public enum WarpMethod {
+        GLOBAL, PER_CELL
+    }
+
+    // how locateGrid finds the grid lines and their intersections
+    // CONTOURS keeps the 10 largest line contours of each orientation and ANDs them,
+    // HOUGH finds the line segments with a probabilistic Hough transform
+    // and intersects the fitted lines analytically, filling in the missing lines from the
+    // spacing of the ones found, and falls back to CONTOURS if too few are found
+    public enum GridMethod {
+        CONTOURS, HOUGH
+    }
+
+    // longest side of the sample images in images/, which the kernel sizes of the stages are tuned for
+    public static final int DEFAULT_DETECTION_SIZE = 560;
+
+    // recognize all non-blank cells with one call (see DigitRecognizer.recognize(List))
+    private boolean batchOcr = true;
+    // null for SingleDigitOCR.getInstance(), looked up when it is used, so the options of
+    // another recognizer do not load Tesseract
+    private DigitRecognizer recognizer = null;
+    private MaskMethod maskMethod = MaskMethod.CONNECTED_COMPONENTS;
+    private WarpMethod warpMethod = WarpMethod.GLOBAL;
+    private GridMethod gridMethod = GridMethod.CONTOURS;
+    // process the cells on all cores (the common ForkJoinPool)
+    private boolean parallel = true;
+    // longest side of the image the grid is detected in, 0 to detect it in the image itself
+    // (see SudokuExtractor.locateGridScaled)
+    private int detectionSize = 0;
+    private PipelineMetrics metrics = PipelineMetrics.DISABLED;
+    // checks that the recognized digits have no conflicts and a single solution (see ConsistencyResolver),
+    // false to return them as they are read
+    private boolean validated = false;
+    // directory the intermediate images are written to, null to write none
+    private String debugDirectory = null;
+
+    public boolean isBatchOcr() {
+        return batchOcr;
+    }
+
+    public ExtractorOptions setBatchOcr(boolean batchOcr) {
+        this.batchOcr = batchOcr;
+        return this;
+    }
+
+    public DigitRecognizer getRecognizer() {
+        return recognizer != null ? recognizer : SingleDigitOCR.getInstance();
+    }
+
+    // throws IllegalArgumentException if recognizer is null
+    public ExtractorOptions setRecognizer(DigitRecognizer recognizer) {
+        if (recognizer == null)
+            throw new IllegalArgumentException("Recognizer is null");
+        this.recognizer = recognizer;
+        return this;
+    }
+
+    public MaskMethod getMaskMethod() {
+        return maskMethod;
+    }
+
+    // throws IllegalArgumentException if maskMethod is null
+    public ExtractorOptions setMaskMethod(MaskMethod maskMethod) {
+        if (maskMethod == null)
+            throw new IllegalArgumentException("Mask method is null");
+        this.maskMethod = maskMethod;
+        return this;
+    }
+
+    public WarpMethod getWarpMethod() {
+        return warpMethod;
+    }
+
+    // throws IllegalArgumentException if warpMethod is null
+    public ExtractorOptions setWarpMethod(WarpMethod warpMethod) {
+        if (warpMethod == null)
+            throw new IllegalArgumentException("Warp method is null");
+        this.warpMethod = warpMethod;
+        return this;
+    }
+
+    public GridMethod getGridMethod() {
+        return gridMethod;
+    }
+
+    // throws IllegalArgumentException if gridMethod is null
+    public ExtractorOptions setGridMethod(GridMethod gridMethod) {
+        if (gridMethod == null)
+            throw new IllegalArgumentException("Grid method is null");
+        this.gridMethod = gridMethod;
+        return this;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public ExtractorOptions setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public int getDetectionSize() {
+        return detectionSize;
+    }
+
+    // e.g. DEFAULT_DETECTION_SIZE, so the latency of the detection does not grow with the camera resolution
+    // throws IllegalArgumentException if detectionSize is negative
+    public ExtractorOptions setDetectionSize(int detectionSize) {
+        if (detectionSize < 0)
+            throw new IllegalArgumentException("Detection size is negative");
+        this.detectionSize = detectionSize;
+        return this;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    // throws IllegalArgumentException if metrics is null, use PipelineMetrics.DISABLED to record nothing
+    public ExtractorOptions setMetrics(PipelineMetrics metrics) {
+        if (metrics == null)
+            throw new IllegalArgumentException("Metrics are null");
+        this.metrics = metrics;
+        return this;
+    }
+
+    public boolean isValidated() {
+        return validated;
+    }
+
+    // the misread cells of a puzzle with conflicts or without a solution are read again
+    // or replaced by their next most confident digits, instead of failing the extraction
+    // a puzzle that none of them makes consistent is left as read (see ConsistencyResolver)
+    // only the cells given to SudokuExtractor.recognize are checked, so FrameStreamExtractor
+    // checks the cells that changed
+    // the checks do not depend on the engine the puzzle is solved with afterwards
+    public ExtractorOptions setValidated(boolean validated) {
+        this.validated = validated;
+        return this;
+    }
+
+    public String getDebugDirectory() {
+        return debugDirectory;
+    }
+
+    // the images are overwritten by the next extraction with the same directory
+    public ExtractorOptions setDebugDirectory(String debugDirectory) {
+        this.debugDirectory = debugDirectory;
+        return this;
+    }
+
+}
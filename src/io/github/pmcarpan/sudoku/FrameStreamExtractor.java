@@ -0,0 +1,337 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+import org.opencv.videoio.VideoCapture;
+
+// extracts the sudoku from consecutive frames of a video or an image sequence
+// the intersections found in a frame are tracked into the next one with optical flow,
+// the full grid detection of SudokuExtractor runs again only when tracking fails
+// a cell is recognized again only when its content changes (see SIGNATURE_SIZE)
+// usage: FrameStreamExtractor <video file | directory of frames>
+// e.g.
+//     try (FrameStreamExtractor stream = new FrameStreamExtractor()) {
+//         while (capture.read(frame))
+//             digits = stream.process(frame);
+//     }
+public class FrameStreamExtractor implements AutoCloseable {
+
+    // window and pyramid levels of the Lucas-Kanade optical flow
+    private static final Size TRACK_WINDOW = new Size(21, 21);
+    private static final int TRACK_LEVELS = 3;
+    // tracking fails if a point has a larger error (mean pixel difference around it)
+    private static final double MAX_TRACK_ERROR = 30;
+    // or if a cell grows or shrinks by a larger factor between two frames
+    private static final double MAX_AREA_CHANGE = 1.5;
+
+    // a cell is compared with the previous frame as a SIGNATURE_SIZE x SIGNATURE_SIZE thumbnail,
+    // it changed if the mean absolute difference of the pixels is larger than MAX_SIGNATURE_CHANGE
+    private static final int SIGNATURE_SIZE = 10;
+    private static final int MAX_SIGNATURE_CHANGE = 24;
+
+    private static final String[] FRAME_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp", ".tif", ".tiff"};
+
+    private final ExtractorOptions options;
+
+    // grayscale previous frame and its 100 intersections, null while the grid is lost
+    private final Mat previousFrame = new Mat();
+    private Point[] points;
+
+    // thumbnails and digits of the cells of the previous frame, null thumbnails for blank cells
+    private final byte[][] signatures = new byte[81][];
+    private final int[] digits = new int[81];
+
+    private long frames, detections, recognizedCells;
+
+    public FrameStreamExtractor() {
+        this(new ExtractorOptions());
+    }
+
+    public FrameStreamExtractor(ExtractorOptions options) {
+        if (options == null)
+            throw new IllegalArgumentException("options are NULL");
+
+        SudokuExtractor.loadLibrary();
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: FrameStreamExtractor <video file | directory of frames>");
+            return;
+        }
+
+        try (FrameStreamExtractor stream = new FrameStreamExtractor()) {
+            long start = System.nanoTime();
+            String last = null;
+
+            File source = new File(args[0]);
+            if (source.isDirectory()) {
+                for (File file : frameFiles(source)) {
+                    Mat frame = Imgcodecs.imread(file.getPath());
+                    last = print(stream, frame, file.getName(), last);
+                    frame.release();
+                }
+            }
+            else {
+                VideoCapture capture = new VideoCapture(args[0]);
+                if (!capture.isOpened())
+                    throw new IllegalArgumentException("Could not open " + args[0]);
+
+                Mat frame = new Mat();
+                for (int k = 0; capture.read(frame); k++)
+                    last = print(stream, frame, "frame " + k, last);
+                frame.release();
+                capture.release();
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d frames in %.3f s (%.1f frames / s), %d grid detections, %d cells recognized%n",
+                              stream.getFrameCount(), seconds, stream.getFrameCount() / seconds,
+                              stream.getDetectionCount(), stream.getRecognizedCellCount());
+        }
+    }
+
+    // the image files of the directory, sorted by name
+    static File[] frameFiles(File directory) {
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName().toLowerCase();
+            for (String extension : FRAME_EXTENSIONS)
+                if (name.endsWith(extension))
+                    return true;
+            return false;
+        });
+        if (files == null)
+            throw new IllegalArgumentException("Could not list " + directory);
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    // print the puzzle of the frame when it differs from the last one printed
+    private static String print(FrameStreamExtractor stream, Mat frame, String name, String last) {
+        try {
+            String puzzle = PuzzleFormat.format(stream.process(frame));
+            if (!puzzle.equals(last))
+                System.out.println(name + ": " + puzzle);
+            return puzzle;
+        }
+        catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // the digits of the next frame (grayscale or BGR), 0 for blank cells
+    // throws IllegalArgumentException if frame is null or empty
+    // throws IllegalStateException if no grid is found in the frame, or a digit is not recognized
+    public int[][] process(Mat frame) {
+        if (frame == null || frame.empty())
+            throw new IllegalArgumentException("Frame is null or empty");
+
+        frames++;
+        try (MatScope scope = new MatScope()) {
+            Mat gray = frame;
+            if (frame.channels() != 1) {
+                gray = scope.mat();
+                Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+            }
+
+            PipelineMetrics metrics = options.getMetrics();
+            long start = metrics.start();
+            Point[] tracked = points == null ? null : track(previousFrame, gray, points);
+            gray.copyTo(previousFrame);
+            if (points != null)
+                metrics.record(PipelineMetrics.Stage.TRACK, start);
+
+            // in pyramid mode the whole frame is not preprocessed (see SudokuExtractor.locateGridScaled)
+            boolean scaled = options.getDetectionSize() > 0;
+            Mat preprocessedImage = null;
+            if (!scaled) {
+                start = metrics.start();
+                preprocessedImage = scope.mat();
+                SudokuExtractor.preprocess(gray, preprocessedImage);
+                metrics.record(PipelineMetrics.Stage.PREPROCESS, start);
+            }
+
+            if (tracked != null) {
+                points = tracked;
+            }
+            else {
+                // the grid must be found again before the next frame can be tracked
+                points = null;
+                detections++;
+                points = scaled ? SudokuExtractor.locateGridScaled(gray, options)
+                                : SudokuExtractor.locateGrid(preprocessedImage, options);
+            }
+
+            return recognize(scaled ? SudokuExtractor.getCellsScaled(gray, points, options)
+                                    : SudokuExtractor.getCells(preprocessedImage, points, options));
+        }
+    }
+
+    // the points in the next frame, or null if any of them is lost
+    private static Point[] track(Mat previous, Mat next, Point[] points) {
+        try (MatScope scope = new MatScope()) {
+            MatOfPoint2f previousPoints = scope.track(new MatOfPoint2f(points)),
+                    nextPoints = scope.track(new MatOfPoint2f());
+            MatOfByte status = scope.track(new MatOfByte());
+            MatOfFloat error = scope.track(new MatOfFloat());
+            Video.calcOpticalFlowPyrLK(previous, next, previousPoints, nextPoints, status, error,
+                                       TRACK_WINDOW, TRACK_LEVELS);
+
+            byte[] found = status.toArray();
+            float[] errors = error.toArray();
+            for (int k = 0; k < points.length; k++)
+                if (found[k] == 0 || errors[k] > MAX_TRACK_ERROR)
+                    return null;
+
+            Point[] tracked = nextPoints.toArray();
+            return isSameGrid(points, tracked) ? tracked : null;
+        }
+    }
+
+    // every cell is still a convex quadrilateral, turning the same way and about as large as before
+    // the points drift apart when the flow follows a digit or the background instead of the grid
+    private static boolean isSameGrid(Point[] before, Point[] after) {
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                int index = i * 10 + j;
+                double areaBefore = area(before, index), areaAfter = area(after, index);
+                if (areaBefore * areaAfter <= 0 || !isConvex(after, index))
+                    return false;
+
+                double change = areaAfter / areaBefore;
+                if (change > MAX_AREA_CHANGE || change < 1 / MAX_AREA_CHANGE)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // corners of the cell whose top left intersection is index, in order around it
+    private static Point[] corners(Point[] points, int index) {
+        return new Point[] {points[index], points[index + 1], points[index + 11], points[index + 10]};
+    }
+
+    // signed area (shoelace formula)
+    private static double area(Point[] points, int index) {
+        Point[] c = corners(points, index);
+        double area = 0;
+        for (int k = 0; k < 4; k++)
+            area += c[k].x * c[(k + 1) % 4].y - c[(k + 1) % 4].x * c[k].y;
+        return area / 2;
+    }
+
+    private static boolean isConvex(Point[] points, int index) {
+        Point[] c = corners(points, index);
+        int sign = 0;
+        for (int k = 0; k < 4; k++) {
+            Point a = c[k], b = c[(k + 1) % 4], d = c[(k + 2) % 4];
+            double cross = (b.x - a.x) * (d.y - b.y) - (b.y - a.y) * (d.x - b.x);
+            int s = cross > 0 ? 1 : cross < 0 ? -1 : 0;
+            if (s == 0 || (sign != 0 && s != sign))
+                return false;
+            sign = s;
+        }
+        return true;
+    }
+
+    // recognize the cells whose thumbnail changed, keep the digits of the others
+    private int[][] recognize(Mat[] cells) {
+        try {
+            byte[][] newSignatures = new byte[81][];
+            Mat[] changed = new Mat[81];
+            int changedCount = 0;
+
+            try (MatScope scope = new MatScope()) {
+                Mat thumbnail = scope.mat();
+                for (int index = 0; index < 81; index++) {
+                    if (cells[index] == null)
+                        continue;
+
+                    Imgproc.resize(cells[index], thumbnail, new Size(SIGNATURE_SIZE, SIGNATURE_SIZE), 0, 0, Imgproc.INTER_AREA);
+                    newSignatures[index] = new byte[SIGNATURE_SIZE * SIGNATURE_SIZE];
+                    thumbnail.get(0, 0, newSignatures[index]);
+
+                    if (!isSameContent(signatures[index], newSignatures[index])) {
+                        changed[index] = cells[index];
+                        changedCount++;
+                    }
+                }
+            }
+
+            if (changedCount > 0) {
+                int[][] recognized = SudokuExtractor.recognize(changed, options);
+                for (int index = 0; index < 81; index++)
+                    if (changed[index] != null)
+                        digits[index] = recognized[index / 9][index % 9];
+                recognizedCells += changedCount;
+            }
+
+            // only once every changed cell is recognized, so a failed frame leaves the cache as it was
+            for (int index = 0; index < 81; index++) {
+                signatures[index] = newSignatures[index];
+                if (newSignatures[index] == null)
+                    digits[index] = 0;
+            }
+
+            int[][] sudokuMatrix = new int[9][9];
+            for (int index = 0; index < 81; index++)
+                sudokuMatrix[index / 9][index % 9] = digits[index];
+            return sudokuMatrix;
+        }
+        finally {
+            for (Mat cell : cells)
+                if (cell != null)
+                    cell.release();
+        }
+    }
+
+    private static boolean isSameContent(byte[] before, byte[] after) {
+        if (before == null)
+            return false;
+
+        int difference = 0;
+        for (int k = 0; k < before.length; k++)
+            difference += Math.abs((before[k] & 0xFF) - (after[k] & 0xFF));
+        return difference <= MAX_SIGNATURE_CHANGE * before.length;
+    }
+
+    // forget the grid and the digits, the next frame is extracted from scratch
+    public void reset() {
+        points = null;
+        Arrays.fill(signatures, null);
+        Arrays.fill(digits, 0);
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    // frames in which the grid was detected instead of tracked
+    public long getDetectionCount() {
+        return detections;
+    }
+
+    // cells recognized because they were new or changed
+    public long getRecognizedCellCount() {
+        return recognizedCells;
+    }
+
+    @Override
+    public void close() {
+        previousFrame.release();
+    }
+
+}
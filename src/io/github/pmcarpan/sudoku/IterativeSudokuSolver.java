@@ -0,0 +1,418 @@
+package io.github.pmcarpan.sudoku;
+
+import java.nio.ByteBuffer;
+
+// reusable solver for boards of one box size, e.g. one instance per worker thread
+// all arrays are allocated by the constructor, so reset and solve produce no garbage
+// the search fills naked and hidden singles, branches on the empty cell with 
+// the fewest candidates and keeps its state on an explicit stack instead of recursing
+public class IterativeSudokuSolver implements Solver {
+
+    private static final int EMPTY = 0;
+
+    private final int boxSize, length, cells;
+    private final long allDigits; // bits 1 to length
+
+    // row-major cells, row, column and grid of every cell
+    private final int[] board, cellRow, cellCol, cellGrid;
+    // cell indices of the rows, columns and grids
+    private final int[][] units;
+
+    // occupancy bitmasks, bit k set means digit k is present
+    private final long[] rowMask, colMask, gridMask;
+    // candidates of the empty cells as the last naked singles pass of propagate found them
+    private final long[] free;
+
+    // cell, untried candidates and trail size of every level of the search
+    private final int[] stackCell, stackMark;
+    private final long[] stackFree;
+
+    // cells assigned during the search, so they can be undone
+    private final int[] trail;
+    private int trailSize;
+
+    // false if the givens repeat a digit in a row, column or grid
+    private boolean consistent;
+    private long nodeCount;
+
+    // throws IllegalArgumentException if boxSize is not from 2 to 7
+    public IterativeSudokuSolver(int boxSize) {
+        if (boxSize < SudokuSolver.MIN_BOX_SIZE || boxSize > SudokuSolver.MAX_BOX_SIZE)
+            throw new IllegalArgumentException("Box size invalid");
+
+        this.boxSize = boxSize;
+        length = boxSize * boxSize;
+        cells = length * length;
+        allDigits = ((1L << length) - 1) << 1;
+
+        board = new int[cells];
+        cellRow = new int[cells];
+        cellCol = new int[cells];
+        cellGrid = new int[cells];
+        units = new int[3 * length][length];
+        for (int cell = 0; cell < cells; cell++) {
+            int i = cell / length, j = cell % length;
+            int grid = (i / boxSize) * boxSize + j / boxSize;
+            cellRow[cell] = i;
+            cellCol[cell] = j;
+            cellGrid[cell] = grid;
+            units[i][j] = cell;
+            units[length + j][i] = cell;
+            units[2 * length + grid][(i % boxSize) * boxSize + j % boxSize] = cell;
+        }
+
+        rowMask = new long[length];
+        colMask = new long[length];
+        gridMask = new long[length];
+        free = new long[cells];
+        stackCell = new int[cells];
+        stackMark = new int[cells];
+        stackFree = new long[cells];
+        trail = new int[cells];
+    }
+
+    // convenience constructor, same as creating a solver for the board size and resetting it
+    public IterativeSudokuSolver(int[][] board) {
+        this(SudokuSolver.validate(board));
+        reset(board);
+    }
+
+    public int getBoxSize() {
+        return boxSize;
+    }
+
+    // throws IllegalArgumentException if the board is invalid or of another size
+    public void reset(int[][] board) {
+        if (SudokuSolver.validate(board) != boxSize)
+            throw new IllegalArgumentException("Input board size invalid");
+
+        clear();
+        for (int i = 0; i < length; i++)
+            for (int j = 0; j < length; j++)
+                if (board[i][j] != EMPTY)
+                    given(i * length + j, board[i][j]);
+    }
+
+    // reset from a single line puzzle (see PuzzleFormat)
+    // throws IllegalArgumentException if the line is invalid or of another size
+    public void reset(CharSequence line) {
+        if (line == null || line.length() != cells)
+            throw new IllegalArgumentException("Puzzle line invalid");
+
+        clear();
+        for (int cell = 0; cell < cells; cell++) {
+            int digit = PuzzleFormat.toDigit(line.charAt(cell));
+            if (digit < 0 || digit > length)
+                throw new IllegalArgumentException("Invalid character in puzzle line: " + line.charAt(cell));
+            if (digit != EMPTY)
+                given(cell, digit);
+        }
+    }
+
+    // reset from the board packed at offset (see PackedBoard and PuzzleStore)
+    // reads the buffer in place, e.g. a slice of a memory-mapped PuzzleStore
+    // throws IllegalArgumentException if a digit is invalid
+    public void reset(ByteBuffer packed, int offset, PackedBoard.Format format) {
+        clear();
+        for (int cell = 0; cell < cells; cell++) {
+            int digit = PackedBoard.get(packed, offset, format, cell);
+            if (digit > length)
+                throw new IllegalArgumentException("Packed board digit(s) invalid");
+            if (digit != EMPTY)
+                given(cell, digit);
+        }
+    }
+
+    // change one cell without a reset, 0 clears the cell
+    // throws IllegalArgumentException if the digit is out of range 
+    // or already present in the row, column or grid of the cell
+    public void set(int row, int col, int digit) {
+        if (row < 0 || row >= length || col < 0 || col >= length)
+            throw new IllegalArgumentException("Cell invalid");
+        if (digit < 0 || digit > length)
+            throw new IllegalArgumentException("Digit invalid");
+
+        int cell = row * length + col;
+        if (board[cell] != EMPTY)
+            remove(cell);
+
+        if (digit != EMPTY) {
+            if ((candidates(cell) & (1L << digit)) == 0)
+                throw new IllegalArgumentException("Digit conflicts with the board");
+            place(cell, digit);
+        }
+
+        // clearing a cell may have removed the conflict of the givens
+        if (!consistent)
+            recheck();
+    }
+
+    // digits that can be placed in the cell, as a bitmask with bit k for digit k
+    public long getCandidates(int row, int col) {
+        return candidates(row * length + col);
+    }
+
+    // rebuild the masks from the board, updating consistent
+    private void recheck() {
+        for (int i = 0; i < length; i++)
+            rowMask[i] = colMask[i] = gridMask[i] = 0;
+        consistent = true;
+        for (int cell = 0; cell < cells; cell++)
+            if (board[cell] != EMPTY)
+                given(cell, board[cell]);
+    }
+
+    private void clear() {
+        for (int cell = 0; cell < cells; cell++)
+            board[cell] = EMPTY;
+        for (int i = 0; i < length; i++)
+            rowMask[i] = colMask[i] = gridMask[i] = 0;
+        consistent = true;
+        nodeCount = 0;
+    }
+
+    private void given(int cell, int num) {
+        long bit = 1L << num;
+        if (((rowMask[cellRow[cell]] | colMask[cellCol[cell]] | gridMask[cellGrid[cell]]) & bit) != 0)
+            consistent = false;
+        place(cell, num);
+    }
+
+    private void place(int cell, int num) {
+        long bit = 1L << num;
+        board[cell] = num;
+        rowMask[cellRow[cell]] |= bit;
+        colMask[cellCol[cell]] |= bit;
+        gridMask[cellGrid[cell]] |= bit;
+    }
+
+    private void remove(int cell) {
+        long bit = ~(1L << board[cell]);
+        board[cell] = EMPTY;
+        rowMask[cellRow[cell]] &= bit;
+        colMask[cellCol[cell]] &= bit;
+        gridMask[cellGrid[cell]] &= bit;
+    }
+
+    // place a digit and record the cell on the trail
+    private void assign(int cell, int num) {
+        place(cell, num);
+        trail[trailSize++] = cell;
+    }
+
+    // remove the cells assigned since the trail was at mark
+    private void undo(int mark) {
+        while (trailSize > mark)
+            remove(trail[--trailSize]);
+    }
+
+    private long candidates(int cell) {
+        long used = rowMask[cellRow[cell]] | colMask[cellCol[cell]] | gridMask[cellGrid[cell]];
+        return ~used & allDigits;
+    }
+
+    // the empty cell with the fewest candidates, -1 if the board is full
+    private int selectCell() {
+        int best = -1, bestCount = length + 1;
+        for (int cell = 0; cell < cells; cell++) {
+            if (board[cell] == EMPTY) {
+                int count = Long.bitCount(candidates(cell));
+                if (count < bestCount) {
+                    best = cell;
+                    bestCount = count;
+                    if (count <= 1)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // fill naked and hidden singles until none are left
+    // returns false if a contradiction is found
+    private boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            // naked singles: cells with exactly one candidate
+            for (int cell = 0; cell < cells; cell++) {
+                if (board[cell] == EMPTY) {
+                    long free = candidates(cell);
+                    if (free == 0)
+                        return false;
+                    if ((free & (free - 1)) == 0) {
+                        assign(cell, Long.numberOfTrailingZeros(free));
+                        changed = true;
+                    }
+                    this.free[cell] = free;
+                }
+            }
+
+            // hidden singles: digits with exactly one place in a unit, counted on the candidates
+            // of the naked singles pass instead of computing them again for each unit of a cell
+            // a digit that has lost a place since is found by the next pass, the cell of a single
+            // is checked before it is assigned, and the last pass assigns nothing, so its counts are exact
+            for (int[] unit : units) {
+                long once = 0, twice = 0, present = 0;
+                for (int cell : unit) {
+                    if (board[cell] == EMPTY) {
+                        long free = this.free[cell];
+                        twice |= once & free;
+                        once |= free;
+                    }
+                    else {
+                        present |= 1L << board[cell];
+                    }
+                }
+
+                long missing = allDigits & ~present;
+                if ((missing & ~once) != 0)
+                    return false;
+
+                for (long singles = once & ~twice & missing; singles != 0; singles &= singles - 1) {
+                    int k = Long.numberOfTrailingZeros(singles);
+                    for (int cell : unit) {
+                        if (board[cell] == EMPTY && (candidates(cell) & (1L << k)) != 0) {
+                            assign(cell, k);
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // the board keeps the solution if one is found, and the givens otherwise
+    @Override
+    public boolean solve() {
+        return search(1, -1, 0) == 1;
+    }
+
+    // number of solutions, counting stops at limit (e.g. 2 for a uniqueness check)
+    // the board keeps the givens
+    public int countSolutions(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Limit must be positive");
+
+        int found = search(limit, -1, 0);
+        undo(0);
+        return found;
+    }
+
+    // number of solutions with another digit than digit in the empty cell, counting stops at limit
+    // one search that propagates the givens once and branches on the cell first,
+    // instead of one for each of its other candidates
+    // (e.g. 1 checks that a clue removed from a puzzle with a single solution leaves it unique)
+    // throws IllegalArgumentException if the cell is not empty or limit is not positive
+    public int countSolutions(int row, int col, int digit, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Limit must be positive");
+        if (row < 0 || row >= length || col < 0 || col >= length || board[row * length + col] != EMPTY)
+            throw new IllegalArgumentException("Cell invalid");
+
+        int cell = row * length + col;
+        int found = search(limit, cell, allDigits & ~(1L << digit));
+        undo(0);
+        return found;
+    }
+
+    // search until limit solutions are found, returns the number found
+    // the board keeps the last solution if the limit is reached, and the givens otherwise
+    // a first cell other than -1 can only take the digits in firstFree, and is branched on
+    // before any other, after the propagation of the givens
+    private int search(int limit, int first, long firstFree) {
+        nodeCount = 0;
+        trailSize = 0;
+        if (!consistent)
+            return 0;
+
+        int found = 0, depth = 0;
+        boolean alive = propagate();
+        if (alive && first != -1) {
+            if (board[first] != EMPTY) {
+                // the givens force the cell
+                alive = (firstFree & (1L << board[first])) != 0;
+            }
+            else {
+                // the level of the first cell, entered by trying its first allowed candidate below
+                stackCell[0] = first;
+                stackFree[0] = candidates(first) & firstFree;
+                stackMark[0] = trailSize;
+                depth = 1;
+                alive = false;
+            }
+        }
+        while (true) {
+            nodeCount++;
+
+            if (alive) {
+                int cell = selectCell();
+                if (cell == -1) {
+                    // a solution, backtrack from it unless it is the last one needed
+                    if (++found == limit)
+                        return found;
+                }
+                else {
+                    // push a new level for the cell
+                    stackCell[depth] = cell;
+                    stackFree[depth] = candidates(cell);
+                    stackMark[depth] = trailSize;
+                    depth++;
+                }
+            }
+
+            // undo the deepest level and try its next candidate,
+            // popping the levels that have none left
+            while (true) {
+                if (depth == 0) {
+                    undo(0);
+                    return found;
+                }
+
+                int level = depth - 1;
+                undo(stackMark[level]);
+
+                long free = stackFree[level];
+                if (free != 0) {
+                    stackFree[level] = free & (free - 1);
+                    assign(stackCell[level], Long.numberOfTrailingZeros(free));
+                    break;
+                }
+                depth--;
+            }
+
+            alive = propagate();
+        }
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int[][] getBoard() {
+        int[][] copy = new int[length][length];
+        for (int cell = 0; cell < cells; cell++)
+            copy[cellRow[cell]][cellCol[cell]] = board[cell];
+        return copy;
+    }
+
+    public int get(int row, int col) {
+        return board[row * length + col];
+    }
+
+    // append the board as a single line (see PuzzleFormat)
+    public void appendTo(StringBuilder sb) {
+        for (int cell = 0; cell < cells; cell++)
+            sb.append(PuzzleFormat.toChar(board[cell]));
+    }
+
+    public String toString() {
+        return SudokuSolver.toString(getBoard());
+    }
+
+}
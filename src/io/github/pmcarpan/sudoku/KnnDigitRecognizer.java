@@ -0,0 +1,308 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+// pure Java k-nearest neighbour DigitRecognizer, much faster than Tesseract for printed digits
+// a cell is reduced to its ink (dark pixels, without the grid lines along the border of the crop),
+// scaled to fit a FEATURE_SIZE x FEATURE_SIZE grid keeping the aspect ratio,
+// and compared with the labelled samples of the model
+// the model is a text file (see save), trained with KnnDigitTrainer
+public class KnnDigitRecognizer implements DigitRecognizer {
+
+    public static final String DEFAULT_MODEL = "models/digits.knn";
+
+    static final int FEATURE_SIZE = 12;
+    static final int FEATURES = FEATURE_SIZE * FEATURE_SIZE;
+
+    private static final int K = 3;
+    private static final int INK_THRESHOLD = 128; // darker pixels are ink
+    private static final int LINE_FRACTION = 6; // border strips up to 1/6 of the cell are grid lines
+
+    // features (0 to 255 average ink) and digits of the samples
+    private final byte[][] samples;
+    private final int[] labels;
+
+    // throws IllegalArgumentException if the samples are invalid
+    public KnnDigitRecognizer(List<byte[]> samples, List<Integer> labels) {
+        if (samples == null || labels == null || samples.isEmpty() || samples.size() != labels.size())
+            throw new IllegalArgumentException("Samples invalid");
+
+        this.samples = new byte[samples.size()][];
+        this.labels = new int[labels.size()];
+        for (int k = 0; k < this.samples.length; k++) {
+            if (samples.get(k).length != FEATURES || labels.get(k) < 1 || labels.get(k) > 9)
+                throw new IllegalArgumentException("Sample " + k + " invalid");
+            this.samples[k] = samples.get(k).clone();
+            this.labels[k] = labels.get(k);
+        }
+    }
+
+    // the model in DEFAULT_MODEL
+    public static KnnDigitRecognizer load() throws IOException {
+        return load(Paths.get(DEFAULT_MODEL));
+    }
+
+    // throws IllegalArgumentException if the file is not a valid model
+    public static KnnDigitRecognizer load(Path model) throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        List<Integer> labels = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(model)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2 || parts[1].length() != 2 * FEATURES)
+                    throw new IllegalArgumentException("Invalid model line: " + line);
+
+                byte[] features = new byte[FEATURES];
+                for (int k = 0; k < FEATURES; k++)
+                    features[k] = (byte) Integer.parseInt(parts[1].substring(2 * k, 2 * k + 2), 16);
+                samples.add(features);
+                labels.add(Integer.parseInt(parts[0]));
+            }
+        }
+        return new KnnDigitRecognizer(samples, labels);
+    }
+
+    // one sample per line: the digit, a space and the features as hex bytes
+    public void save(Path model) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(model)) {
+            writer.write("# KnnDigitRecognizer model, " + samples.length + " samples of " +
+                         FEATURE_SIZE + " x " + FEATURE_SIZE + " features");
+            writer.newLine();
+
+            StringBuilder sb = new StringBuilder();
+            for (int k = 0; k < samples.length; k++) {
+                sb.setLength(0);
+                sb.append(labels[k]).append(' ');
+                for (byte feature : samples[k])
+                    sb.append(Character.forDigit((feature >> 4) & 0xF, 16))
+                      .append(Character.forDigit(feature & 0xF, 16));
+                writer.write(sb.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    public int getSampleCount() {
+        return samples.length;
+    }
+
+    @Override
+    public int recognize(Mat cell) {
+        return recognize(pixels(cell), cell.cols(), cell.rows());
+    }
+
+    // same as recognize, but a cell without ink is NONE
+    @Override
+    public DigitReading read(Mat cell) {
+        try {
+            return read(pixels(cell), cell.cols(), cell.rows());
+        }
+        catch (IllegalStateException e) {
+            return DigitReading.NONE;
+        }
+    }
+
+    // throws IllegalArgumentExcepton if cell is null, empty or not CV_8UC1
+    private static byte[] pixels(Mat cell) {
+        if (cell == null || cell.empty())
+            throw new IllegalArgumentException("Cell image is null or empty");
+        if (cell.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Cell image must be CV_8UC1");
+
+        // a view into a larger image (e.g. a crop) has gaps between its rows
+        Mat continuous = cell.isContinuous() ? cell : cell.clone();
+        byte[] pixels = new byte[cell.rows() * cell.cols()];
+        continuous.get(0, 0, pixels);
+        if (continuous != cell)
+            continuous.release();
+        return pixels;
+    }
+
+    // same as recognize(Mat) for row-major grayscale pixels
+    // throws IllegalStateException if the cell has no ink
+    public int recognize(byte[] pixels, int width, int height) {
+        return read(pixels, width, height).getDigit();
+    }
+
+    // every digit of the model, the digit of recognize first
+    // the confidence of a digit is its share of the votes of the K nearest samples,
+    // plus a share of one more vote by the inverse distance of its nearest sample,
+    // so the digits without a vote are ranked by how close they came
+    // throws IllegalStateException if the cell has no ink
+    public DigitReading read(byte[] pixels, int width, int height) {
+        byte[] features = features(pixels, width, height);
+
+        // the K nearest samples, sorted by distance, and the nearest sample of every digit
+        long[] nearestDistance = new long[K];
+        int[] nearestLabel = new int[K];
+        Arrays.fill(nearestDistance, Long.MAX_VALUE);
+        long[] digitDistance = new long[10];
+        Arrays.fill(digitDistance, Long.MAX_VALUE);
+
+        for (int s = 0; s < samples.length; s++) {
+            byte[] sample = samples[s];
+            long distance = 0;
+            for (int k = 0; k < FEATURES; k++) {
+                int d = (features[k] & 0xFF) - (sample[k] & 0xFF);
+                distance += d * d;
+            }
+
+            digitDistance[labels[s]] = Math.min(digitDistance[labels[s]], distance);
+            if (distance < nearestDistance[K - 1]) {
+                int k = K - 1;
+                for (; k > 0 && nearestDistance[k - 1] > distance; k--) {
+                    nearestDistance[k] = nearestDistance[k - 1];
+                    nearestLabel[k] = nearestLabel[k - 1];
+                }
+                nearestDistance[k] = distance;
+                nearestLabel[k] = labels[s];
+            }
+        }
+
+        // majority vote, ties go to the nearest sample, which is also the closest digit
+        int[] votes = new int[10];
+        for (int k = 0; k < K; k++)
+            if (nearestDistance[k] != Long.MAX_VALUE)
+                votes[nearestLabel[k]]++;
+
+        double[] closeness = new double[10];
+        double totalCloseness = 0;
+        int count = 0;
+        for (int d = 1; d <= 9; d++) {
+            if (digitDistance[d] != Long.MAX_VALUE) {
+                closeness[d] = 1 / (1 + Math.sqrt(digitDistance[d]));
+                totalCloseness += closeness[d];
+                count++;
+            }
+        }
+
+        int[] digits = new int[count];
+        double[] confidences = new double[count];
+        for (int d = 1, k = 0; d <= 9; d++) {
+            if (digitDistance[d] != Long.MAX_VALUE) {
+                digits[k] = d;
+                confidences[k++] = (votes[d] + closeness[d] / totalCloseness) / (K + 1);
+            }
+        }
+        return new DigitReading(digits, confidences);
+    }
+
+    // the ink of the cell scaled into the feature grid, 0 to 255 per feature
+    // throws IllegalArgumentException if the size does not match the pixels
+    // throws IllegalStateException if the cell has no ink
+    static byte[] features(byte[] pixels, int width, int height) {
+        if (pixels == null || width <= 0 || height <= 0 || pixels.length != width * height)
+            throw new IllegalArgumentException("Cell pixels invalid");
+
+        boolean[] ink = new boolean[pixels.length];
+        for (int p = 0; p < pixels.length; p++)
+            ink[p] = (pixels[p] & 0xFF) < INK_THRESHOLD;
+
+        // remove the remains of the grid lines along the border
+        boolean[] seen = new boolean[pixels.length];
+        int[] component = new int[pixels.length];
+        for (int x = 0; x < width; x++) {
+            removeLine(ink, seen, width, height, x, component);
+            removeLine(ink, seen, width, height, (height - 1) * width + x, component);
+        }
+        for (int y = 0; y < height; y++) {
+            removeLine(ink, seen, width, height, y * width, component);
+            removeLine(ink, seen, width, height, y * width + width - 1, component);
+        }
+
+        int left = width, right = -1, top = height, bottom = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (ink[y * width + x]) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                }
+            }
+        }
+        if (right < 0)
+            throw new IllegalStateException("Could not detect anything");
+
+        // centre the bounding box in a square, so narrow digits like 1 keep their shape
+        int w = right - left + 1, h = bottom - top + 1, side = Math.max(w, h);
+        int offsetX = (side - w) / 2, offsetY = (side - h) / 2;
+
+        int[] sums = new int[FEATURES];
+        for (int y = top; y <= bottom; y++) {
+            int fy = (y - top + offsetY) * FEATURE_SIZE / side;
+            for (int x = left; x <= right; x++) {
+                if (ink[y * width + x]) {
+                    int fx = (x - left + offsetX) * FEATURE_SIZE / side;
+                    sums[fy * FEATURE_SIZE + fx]++;
+                }
+            }
+        }
+
+        double area = (double) side * side / FEATURES;
+        byte[] features = new byte[FEATURES];
+        for (int k = 0; k < FEATURES; k++)
+            features[k] = (byte) Math.min(255, Math.round(sums[k] * 255 / area));
+        return features;
+    }
+
+    // clear the 4-connected ink component containing start (a pixel on the border)
+    // if it is a thin strip along the border, like the remains of a grid line
+    // a digit cut by the crop touches the border too, but it is not thin in that direction
+    private static void removeLine(boolean[] ink, boolean[] seen, int width, int height, int start, int[] component) {
+        if (!ink[start] || seen[start])
+            return;
+
+        int size = 0;
+        seen[start] = true;
+        component[size++] = start;
+        int left = width, right = -1, top = height, bottom = -1;
+        for (int k = 0; k < size; k++) {
+            int p = component[k], x = p % width, y = p / width;
+            left = Math.min(left, x);
+            right = Math.max(right, x);
+            top = Math.min(top, y);
+            bottom = Math.max(bottom, y);
+
+            if (x > 0 && ink[p - 1] && !seen[p - 1]) {
+                seen[p - 1] = true;
+                component[size++] = p - 1;
+            }
+            if (x < width - 1 && ink[p + 1] && !seen[p + 1]) {
+                seen[p + 1] = true;
+                component[size++] = p + 1;
+            }
+            if (y > 0 && ink[p - width] && !seen[p - width]) {
+                seen[p - width] = true;
+                component[size++] = p - width;
+            }
+            if (y < height - 1 && ink[p + width] && !seen[p + width]) {
+                seen[p + width] = true;
+                component[size++] = p + width;
+            }
+        }
+
+        boolean thin = ((left == 0 || right == width - 1) && (right - left + 1) * LINE_FRACTION <= width)
+                || ((top == 0 || bottom == height - 1) && (bottom - top + 1) * LINE_FRACTION <= height);
+        if (thin)
+            for (int k = 0; k < size; k++)
+                ink[component[k]] = false;
+    }
+
+}
@@ -0,0 +1,189 @@
+package io.github.pmcarpan.sudoku;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Mat;
+
+// trains a KnnDigitRecognizer model
+// usage: KnnDigitTrainer <model file> [--glyphs] [--cells <directory>] [labelled image list]...
+// the list has one image per line, its path and its puzzle (see PuzzleFormat), e.g.
+// images/sudokubig.jpg ...6.47..7.6.....9.....5.8..7..2..938.......543..1..7..5.2.....3.....2.8..23.1...
+// every non-blank cell cut by SudokuExtractor becomes a sample labelled with the digit of the puzzle,
+// once for each size the grid is found at (see DETECTION_SIZES), as the extractions cut them
+// models/digits.knn is trained with --glyphs puzzles/images.txt
+// --cells adds saved cell crops, image files whose names start with their digit (e.g. 7-r2c1.png)
+// --glyphs adds the digits rendered in the standard Java fonts
+// --cells and --glyphs need no OpenCV
+public class KnnDigitTrainer {
+
+    // size of the crops cut by SudokuExtractor.getCells
+    private static final int CELL_SIZE = 70;
+
+    // the two ways an extraction finds the grid, in the image itself or in a scaled copy (see ExtractorOptions.setDetectionSize)
+    private static final int[] DETECTION_SIZES = {0, ExtractorOptions.DEFAULT_DETECTION_SIZE};
+
+    private static final String[] FONTS = {Font.SANS_SERIF, Font.SERIF, Font.MONOSPACED};
+    private static final int[] STYLES = {Font.PLAIN, Font.BOLD};
+    private static final int[] FONT_SIZES = {40, 50, 60};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: KnnDigitTrainer <model file> [--glyphs] [--cells <directory>] [labelled image list]...");
+            return;
+        }
+
+        List<byte[]> samples = new ArrayList<>();
+        List<Integer> labels = new ArrayList<>();
+        for (int a = 1; a < args.length; a++) {
+            if (args[a].equals("--glyphs"))
+                System.out.println("glyphs: " + addGlyphs(samples, labels) + " samples");
+            else if (args[a].equals("--cells") && a + 1 < args.length)
+                addCells(Paths.get(args[++a]), samples, labels);
+            else
+                addImages(Paths.get(args[a]), samples, labels);
+        }
+
+        KnnDigitRecognizer recognizer = new KnnDigitRecognizer(samples, labels);
+        recognizer.save(Paths.get(args[0]));
+        System.out.println("Saved " + recognizer.getSampleCount() + " samples to " + args[0]);
+    }
+
+    // the images and puzzles of a labelled image list
+    // throws IllegalArgumentException if a line is invalid
+    static List<String[]> readImageList(Path list) throws IOException {
+        List<String[]> images = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(list)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2 || parts[1].length() != 81)
+                    throw new IllegalArgumentException("Invalid image list line: " + line);
+                images.add(parts);
+            }
+        }
+        return images;
+    }
+
+    private static void addImages(Path list, List<byte[]> samples, List<Integer> labels) throws IOException {
+        for (String[] image : readImageList(list))
+            System.out.println(image[0] + ": " + addImage(image, samples, labels) + " samples");
+    }
+
+    // the samples of the non-blank cells of a labelled image (its path and its puzzle),
+    // cut at every size of DETECTION_SIZES
+    // returns the number of samples added
+    static int addImage(String[] image, List<byte[]> samples, List<Integer> labels) {
+        int[][] puzzle = PuzzleFormat.parse(image[1]);
+
+        int added = 0;
+        for (int detectionSize : DETECTION_SIZES) {
+            Mat[] cells = SudokuExtractor.getCells(image[0], new ExtractorOptions().setDetectionSize(detectionSize));
+            for (int index = 0; index < 81; index++) {
+                int digit = puzzle[index / 9][index % 9];
+                if (cells[index] == null || digit == 0)
+                    continue;
+
+                byte[] pixels = new byte[cells[index].rows() * cells[index].cols()];
+                Mat continuous = cells[index].clone();
+                continuous.get(0, 0, pixels);
+                continuous.release();
+                try {
+                    samples.add(KnnDigitRecognizer.features(pixels, cells[index].cols(), cells[index].rows()));
+                    labels.add(digit);
+                    added++;
+                }
+                catch (IllegalStateException e) {
+                    // no ink left once the border is removed, not a useful sample
+                }
+            }
+            for (Mat cell : cells)
+                if (cell != null)
+                    cell.release();
+        }
+        return added;
+    }
+
+    private static void addCells(Path directory, List<byte[]> samples, List<Integer> labels) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream)
+                files.add(file);
+        }
+        Collections.sort(files);
+
+        int added = 0;
+        for (Path file : files) {
+            char label = file.getFileName().toString().charAt(0);
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (label < '1' || label > '9' || image == null)
+                continue;
+
+            // draw into a grayscale image, whatever the type of the file
+            BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = gray.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+
+            byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+            samples.add(KnnDigitRecognizer.features(pixels, gray.getWidth(), gray.getHeight()));
+            labels.add(label - '0');
+            added++;
+        }
+        System.out.println(directory + ": " + added + " samples");
+    }
+
+    // the digits rendered in the standard Java fonts
+    // returns the number of samples added
+    static int addGlyphs(List<byte[]> samples, List<Integer> labels) {
+        BufferedImage image = new BufferedImage(CELL_SIZE, CELL_SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        int added = 0;
+        for (String name : FONTS) {
+            for (int style : STYLES) {
+                for (int size : FONT_SIZES) {
+                    g.setFont(new Font(name, style, size));
+                    FontMetrics metrics = g.getFontMetrics();
+                    for (int digit = 1; digit <= 9; digit++) {
+                        String text = String.valueOf(digit);
+                        g.setColor(Color.WHITE);
+                        g.fillRect(0, 0, CELL_SIZE, CELL_SIZE);
+                        g.setColor(Color.BLACK);
+                        g.drawString(text, (CELL_SIZE - metrics.stringWidth(text)) / 2,
+                                     (CELL_SIZE + metrics.getAscent() - metrics.getDescent()) / 2);
+
+                        samples.add(KnnDigitRecognizer.features(pixels, CELL_SIZE, CELL_SIZE));
+                        labels.add(digit);
+                        added++;
+                    }
+                }
+            }
+        }
+        g.dispose();
+        return added;
+    }
+
+}
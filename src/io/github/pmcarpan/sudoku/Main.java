@@ -2,17 +2,31 @@ package io.github.pmcarpan.sudoku;
 
 public class Main {
 
+    // -Dsudoku.metrics=true prints the time of every stage
+    // -Dsudoku.debug=<directory> writes the intermediate images there
     public static void main(String[] args) {
+        PipelineMetrics metrics = Boolean.getBoolean("sudoku.metrics") ? new PipelineMetrics() : PipelineMetrics.DISABLED;
+        ExtractorOptions options = new ExtractorOptions().setMetrics(metrics)
+                                                         .setDebugDirectory(System.getProperty("sudoku.debug"));
+
         // extract matrix
-        SudokuExtractor extractor = new SudokuExtractor("images/sudokubig.jpg");
+        SudokuExtractor extractor = new SudokuExtractor("images/sudokubig.jpg", options);
         
-        // try to solve
-        SudokuSolver solver = new SudokuSolver(extractor.getExtractedArray());
+        // try to solve, the engine can be given as first argument
+        SolverEngine engine = SolverEngine.fromName(args.length > 0 ? args[0] : null);
+        Solver solver = engine.create(extractor.getExtractedArray());
         System.out.println("ORIGINAL MATRIX:\n" + solver);
         
-        if (solver.solve()) {
+        long start = metrics.start();
+        boolean solved = solver.solve();
+        metrics.record(PipelineMetrics.Stage.SOLVE, start);
+
+        if (solved) {
             System.out.println("SOLVED MATRIX:\n" + solver);
         }
+
+        if (metrics.isEnabled())
+            System.out.println(metrics);
     }
     
 }
@@ -0,0 +1,44 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+// releases the native memory of the Mats it tracks when it is closed,
+// instead of leaving it until the garbage collector finalizes them
+// e.g.
+//     try (MatScope scope = new MatScope()) {
+//         Mat blur = scope.mat();
+//         ...
+//     }
+// the pixels of a released Mat stay alive while a view of them (e.g. a submat) is not released
+// tracking is thread safe, so the parallel parts of a stage can share a scope
+class MatScope implements AutoCloseable {
+
+    private final List<Mat> mats = new ArrayList<>();
+
+    // a new empty Mat, released with the scope
+    Mat mat() {
+        return track(new Mat());
+    }
+
+    synchronized <T extends Mat> T track(T mat) {
+        mats.add(mat);
+        return mat;
+    }
+
+    // e.g. the contours found by Imgproc.findContours
+    synchronized <T extends Mat> List<T> trackAll(List<T> list) {
+        mats.addAll(list);
+        return list;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Mat mat : mats)
+            mat.release();
+        mats.clear();
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.github.pmcarpan.sudoku;
+
+import java.nio.ByteBuffer;
+
+// compact board encodings, cells in row-major order with 0 for an empty cell
+// BYTE uses one byte per cell (81 bytes for 9 x 9)
+// NIBBLE packs two cells per byte, high nibble first (41 bytes for 9 x 9),
+// and only fits boards with digits up to 15 (4 x 4 and 9 x 9)
+// all methods use absolute indices and leave the buffer position unchanged
+public class PackedBoard {
+
+    public enum Format {
+        BYTE, NIBBLE;
+
+        // bytes used by a board with the given number of cells
+        public int size(int cells) {
+            return this == BYTE ? cells : (cells + 1) / 2;
+        }
+
+        // throws IllegalArgumentException if the format cannot hold the box size
+        void check(int boxSize) {
+            if (boxSize < SudokuSolver.MIN_BOX_SIZE || boxSize > SudokuSolver.MAX_BOX_SIZE)
+                throw new IllegalArgumentException("Box size invalid");
+            if (this == NIBBLE && boxSize * boxSize > 15)
+                throw new IllegalArgumentException("Nibble format holds digits up to 15 only");
+        }
+    }
+
+    // do not instantiate
+    private PackedBoard() {
+    }
+
+    // digit of a cell of the board packed at offset
+    public static int get(ByteBuffer buffer, int offset, Format format, int cell) {
+        if (format == Format.BYTE)
+            return buffer.get(offset + cell) & 0xFF;
+
+        int b = buffer.get(offset + cell / 2);
+        return (cell & 1) == 0 ? (b >> 4) & 0x0F : b & 0x0F;
+    }
+
+    // write the board at offset
+    // throws IllegalArgumentException if the board is invalid or does not fit the format
+    public static void pack(int[][] board, ByteBuffer buffer, int offset, Format format) {
+        int boxSize = SudokuSolver.validate(board);
+        format.check(boxSize);
+
+        int length = board.length;
+        if (format == Format.BYTE) {
+            for (int i = 0; i < length; i++)
+                for (int j = 0; j < length; j++)
+                    buffer.put(offset + i * length + j, (byte) board[i][j]);
+            return;
+        }
+
+        int cells = length * length;
+        for (int cell = 0; cell < cells; cell += 2) {
+            int high = board[cell / length][cell % length],
+                    low = cell + 1 < cells ? board[(cell + 1) / length][(cell + 1) % length] : 0;
+            buffer.put(offset + cell / 2, (byte) (high << 4 | low));
+        }
+    }
+
+    // read the board packed at offset
+    // throws IllegalArgumentException if a digit is larger than the side length
+    public static int[][] unpack(ByteBuffer buffer, int offset, Format format, int boxSize) {
+        format.check(boxSize);
+
+        int length = boxSize * boxSize;
+        int[][] board = new int[length][length];
+        for (int cell = 0; cell < length * length; cell++) {
+            int digit = get(buffer, offset, format, cell);
+            if (digit > length)
+                throw new IllegalArgumentException("Packed board digit(s) invalid");
+            board[cell / length][cell % length] = digit;
+        }
+        return board;
+    }
+
+}
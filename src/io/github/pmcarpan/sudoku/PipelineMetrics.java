@@ -0,0 +1,215 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// latency histograms of the extraction stages, and counters of what the stages did
+// one instance can be shared by any number of extractions and threads, e.g.
+//     PipelineMetrics metrics = new PipelineMetrics();
+//     new SudokuExtractor(path, new ExtractorOptions().setMetrics(metrics));
+//     System.out.println(metrics);
+// DISABLED (the default of ExtractorOptions) records nothing and does not read the clock
+// a stage is timed as
+//     long start = metrics.start();
+//     ...
+//     metrics.record(Stage.MASK, start);
+public class PipelineMetrics {
+
+    public enum Stage {
+        DECODE, PREPROCESS, MASK, GRID_LINES, INTERSECTIONS, WARP, BLANK_FILTER, OCR, SOLVE, TRACK
+    }
+
+    public enum Counter {
+        // non-blank cells given to the recognizer, and blank cells skipped
+        CELLS_RECOGNIZED, CELLS_BLANK,
+        // grids in which the number of intersections found was not 100
+        INTERSECTION_FAILURES,
+        // grids in which HOUGH found too few lines, and CONTOURS was used (see ExtractorOptions.GridMethod)
+        HOUGH_FALLBACKS,
+        // suspect cells read again, and cells given another digit (see ConsistencyResolver)
+        CELLS_REREAD, CELLS_SUBSTITUTED,
+        // puzzles left as read because no consistent one was found (see ConsistencyResolver)
+        PUZZLES_UNRESOLVED
+    }
+
+    public static final PipelineMetrics DISABLED = new PipelineMetrics(false);
+
+    // the histogram buckets have SUB_BUCKETS per power of 2 nanoseconds, so a bucket is at most
+    // 1 / SUB_BUCKETS as wide as its lower bound, from 1 ns to the largest long
+    private static final int SUB_BUCKET_BITS = 2, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final boolean enabled;
+
+    private final AtomicLongArray histograms, counts, totalNanos, maxNanos, counters;
+
+    public PipelineMetrics() {
+        this(true);
+    }
+
+    private PipelineMetrics(boolean enabled) {
+        this.enabled = enabled;
+
+        int stages = enabled ? Stage.values().length : 0;
+        histograms = new AtomicLongArray(stages * BUCKETS);
+        counts = new AtomicLongArray(stages);
+        totalNanos = new AtomicLongArray(stages);
+        maxNanos = new AtomicLongArray(stages);
+        counters = new AtomicLongArray(enabled ? Counter.values().length : 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // the clock for record, 0 if disabled
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // record the time since start (see start) as one run of the stage
+    // returns the clock, so it can be the start of the next stage
+    public long record(Stage stage, long start) {
+        if (!enabled)
+            return 0;
+
+        long now = System.nanoTime();
+        recordNanos(stage, now - start);
+        return now;
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        if (!enabled)
+            return;
+
+        nanos = Math.max(0, nanos);
+        int s = stage.ordinal();
+        histograms.incrementAndGet(s * BUCKETS + bucket(nanos));
+        counts.incrementAndGet(s);
+        totalNanos.addAndGet(s, nanos);
+        maxNanos.accumulateAndGet(s, nanos, Math::max);
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long delta) {
+        if (enabled)
+            counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    // bucket 0 to SUB_BUCKETS - 1 hold 0 to SUB_BUCKETS - 1 ns,
+    // then every power of 2 is split into SUB_BUCKETS equal parts
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+
+        int power = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // smallest time in the bucket
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int power = bucket / SUB_BUCKETS - 1 + SUB_BUCKET_BITS, sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (power - SUB_BUCKET_BITS);
+    }
+
+    // largest time in the bucket
+    private static long upperBound(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long getCount(Stage stage) {
+        return enabled ? counts.get(stage.ordinal()) : 0;
+    }
+
+    public long getTotalNanos(Stage stage) {
+        return enabled ? totalNanos.get(stage.ordinal()) : 0;
+    }
+
+    public long getMaxNanos(Stage stage) {
+        return enabled ? maxNanos.get(stage.ordinal()) : 0;
+    }
+
+    public long getCounter(Counter counter) {
+        return enabled ? counters.get(counter.ordinal()) : 0;
+    }
+
+    // upper bound of the bucket holding the fraction (0 to 1) of the runs of the stage,
+    // at most the largest time recorded, 0 if there are none
+    // throws IllegalArgumentException if fraction is not between 0 and 1
+    public long getPercentileNanos(Stage stage, double fraction) {
+        if (!(fraction >= 0 && fraction <= 1))
+            throw new IllegalArgumentException("Fraction must be between 0 and 1");
+
+        long count = getCount(stage);
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count)), seen = 0;
+        int s = stage.ordinal();
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histograms.get(s * BUCKETS + b);
+            if (seen >= rank)
+                return Math.min(upperBound(b), getMaxNanos(stage));
+        }
+        return getMaxNanos(stage);
+    }
+
+    // the non-empty buckets of every stage as CSV, with a header line
+    // stage,lower_ns,upper_ns,count
+    public void writeHistograms(Appendable out) throws IOException {
+        out.append("stage,lower_ns,upper_ns,count\n");
+        if (!enabled)
+            return;
+
+        for (Stage stage : Stage.values()) {
+            for (int b = 0; b < BUCKETS; b++) {
+                long count = histograms.get(stage.ordinal() * BUCKETS + b);
+                if (count > 0)
+                    out.append(stage.name()).append(',').append(String.valueOf(lowerBound(b))).append(',')
+                       .append(String.valueOf(upperBound(b))).append(',').append(String.valueOf(count)).append('\n');
+            }
+        }
+    }
+
+    public void reset() {
+        for (int k = 0; k < histograms.length(); k++)
+            histograms.set(k, 0);
+        for (int k = 0; k < counts.length(); k++) {
+            counts.set(k, 0);
+            totalNanos.set(k, 0);
+            maxNanos.set(k, 0);
+        }
+        for (int k = 0; k < counters.length(); k++)
+            counters.set(k, 0);
+    }
+
+    // a table of the stages that ran, and the counters
+    public String toString() {
+        if (!enabled)
+            return "PipelineMetrics[disabled]";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-14s %8s %10s %10s %10s %10s %10s%n",
+                                "Stage", "Count", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms"));
+        for (Stage stage : Stage.values()) {
+            long count = getCount(stage);
+            if (count == 0)
+                continue;
+            sb.append(String.format("%-14s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", stage, count,
+                                    getTotalNanos(stage) / 1e6 / count, getPercentileNanos(stage, 0.5) / 1e6,
+                                    getPercentileNanos(stage, 0.9) / 1e6, getPercentileNanos(stage, 0.99) / 1e6,
+                                    getMaxNanos(stage) / 1e6));
+        }
+        for (Counter counter : Counter.values())
+            sb.append(String.format("%-22s %d%n", counter, getCounter(counter)));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,281 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// canonical form of a puzzle under the transformations that keep a sudoku a sudoku with the same
+// number of solutions: relabeling the digits, permuting the bands, the rows within a band,
+// the stacks and the columns within a stack, and transposing
+// equivalent puzzles have the same canonical form, so they can share a cache entry (see ResultCache)
+// the canonical form is the smallest transformed puzzle read row by row, with the digits relabeled
+// in order of first appearance and a blank larger than any digit (so the givens come first)
+// it is searched row by row, keeping only the transformations that give the smallest rows so far
+// 9 x 9 puzzles get all the transformations, other sizes are only relabeled
+public class PuzzleCanonicalizer {
+
+    // a nearly empty puzzle keeps too many transformations tied, it is not canonicalized
+    private static final int MAX_CANDIDATES = 50000;
+
+    private static final int BOX_SIZE = 3, SIZE = BOX_SIZE * BOX_SIZE;
+    private static final int BLANK = Integer.MAX_VALUE;
+
+    // every column order that keeps the stacks together (3! orders of the stacks, 3! in each)
+    private static final int[][] COLUMN_ORDERS = columnOrders();
+
+    private PuzzleCanonicalizer() {
+    }
+
+    // the transformation of a puzzle to its canonical form, and back
+    public static class Canonical {
+        private final boolean transposed;
+        // canonical row i is row rows[i] of the (transposed) puzzle, the same for the columns
+        private final int[] rows, columns;
+        // canonical digit of every digit, and the other way around
+        private final int[] labels, digits;
+        private final int[][] board;
+        private final String key;
+
+        private Canonical(boolean transposed, int[] rows, int[] columns, int[] labels, int[][] board) {
+            this.transposed = transposed;
+            this.rows = rows;
+            this.columns = columns;
+            this.labels = labels;
+            this.board = board;
+
+            digits = new int[labels.length];
+            for (int d = 0; d < labels.length; d++)
+                digits[labels[d]] = d;
+            key = PuzzleFormat.format(board);
+        }
+
+        // the canonical puzzle as a line (see PuzzleFormat)
+        public String getKey() {
+            return key;
+        }
+
+        public int[][] getBoard() {
+            return copy(board);
+        }
+
+        // the board (e.g. a solution of the puzzle) with the same transformation as the puzzle
+        public int[][] toCanonical(int[][] board) {
+            int[][] canonical = new int[rows.length][rows.length];
+            for (int i = 0; i < rows.length; i++)
+                for (int j = 0; j < rows.length; j++)
+                    canonical[i][j] = labels[transposed ? board[columns[j]][rows[i]] : board[rows[i]][columns[j]]];
+            return canonical;
+        }
+
+        // the inverse of toCanonical, e.g. for the solution of the canonical puzzle
+        public int[][] fromCanonical(int[][] canonical) {
+            int[][] board = new int[rows.length][rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                for (int j = 0; j < rows.length; j++) {
+                    if (transposed)
+                        board[columns[j]][rows[i]] = digits[canonical[i][j]];
+                    else
+                        board[rows[i]][columns[j]] = digits[canonical[i][j]];
+                }
+            }
+            return board;
+        }
+    }
+
+    // a transformation whose first rowCount canonical rows are the smallest found so far
+    private static class Candidate {
+        final int[][] grid; // the puzzle, or its transpose
+        final boolean transposed;
+        final int[] columns, rows, labels;
+        final int rowCount, nextLabel;
+
+        Candidate(int[][] grid, boolean transposed, int[] columns, int[] rows, int rowCount, int[] labels, int nextLabel) {
+            this.grid = grid;
+            this.transposed = transposed;
+            this.columns = columns;
+            this.rows = rows;
+            this.rowCount = rowCount;
+            this.labels = labels;
+            this.nextLabel = nextLabel;
+        }
+    }
+
+    // null if the puzzle is too symmetric to search (e.g. nearly empty)
+    // throws IllegalArgumentException if board is not a valid puzzle size or has digits out of range
+    public static Canonical canonicalize(int[][] board) {
+        int side = validate(board);
+        if (side != SIZE)
+            return relabel(board);
+
+        int[][] transpose = new int[SIZE][SIZE];
+        for (int r = 0; r < SIZE; r++)
+            for (int c = 0; c < SIZE; c++)
+                transpose[c][r] = board[r][c];
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int[] columns : COLUMN_ORDERS) {
+            candidates.add(new Candidate(board, false, columns, new int[SIZE], 0, new int[SIZE + 1], 1));
+            candidates.add(new Candidate(transpose, true, columns, new int[SIZE], 0, new int[SIZE + 1], 1));
+        }
+
+        int[][] canonical = new int[SIZE][];
+        // the row being tried and its labels, copied only if the row is kept
+        int[] values = new int[SIZE], labels = new int[SIZE + 1];
+        for (int i = 0; i < SIZE; i++) {
+            List<Candidate> next = new ArrayList<>();
+            int[] best = null;
+
+            for (Candidate candidate : candidates) {
+                for (int row : allowedRows(candidate)) {
+                    System.arraycopy(candidate.labels, 0, labels, 0, labels.length);
+                    int nextLabel = candidate.nextLabel;
+                    // compared with best while the row is built, most rows are larger after a few cells
+                    int order = best == null ? -1 : 0;
+                    for (int j = 0; j < SIZE && order <= 0; j++) {
+                        int digit = candidate.grid[row][candidate.columns[j]];
+                        if (digit == 0) {
+                            values[j] = BLANK;
+                        }
+                        else {
+                            if (labels[digit] == 0)
+                                labels[digit] = nextLabel++;
+                            values[j] = labels[digit];
+                        }
+                        if (order == 0 && values[j] != best[j])
+                            order = values[j] < best[j] ? -1 : 1;
+                    }
+
+                    if (order > 0)
+                        continue;
+                    if (order < 0) {
+                        best = values.clone();
+                        next.clear();
+                    }
+                    if (next.size() == MAX_CANDIDATES)
+                        return null;
+
+                    int[] rows = candidate.rows.clone();
+                    rows[i] = row;
+                    next.add(new Candidate(candidate.grid, candidate.transposed, candidate.columns, rows,
+                                           i + 1, labels.clone(), nextLabel));
+                }
+            }
+
+            candidates = next;
+            canonical[i] = best;
+        }
+
+        // all the candidates left give the same canonical puzzle
+        Candidate chosen = candidates.get(0);
+        for (int[] row : canonical)
+            for (int j = 0; j < SIZE; j++)
+                if (row[j] == BLANK)
+                    row[j] = 0;
+        return new Canonical(chosen.transposed, chosen.rows, chosen.columns,
+                             completeLabels(chosen.labels, chosen.nextLabel), canonical);
+    }
+
+    // the rows that can be canonical row rowCount: the rest of the current band,
+    // or at the start of a band, the rows of the bands not used yet
+    private static int[] allowedRows(Candidate candidate) {
+        int i = candidate.rowCount;
+        int[] allowed = new int[SIZE];
+        int count = 0;
+        if (i % BOX_SIZE != 0) {
+            int band = candidate.rows[i - 1] / BOX_SIZE;
+            for (int row = band * BOX_SIZE; row < (band + 1) * BOX_SIZE; row++) {
+                boolean used = false;
+                for (int k = i - i % BOX_SIZE; k < i; k++)
+                    used |= candidate.rows[k] == row;
+                if (!used)
+                    allowed[count++] = row;
+            }
+        }
+        else {
+            for (int row = 0; row < SIZE; row++) {
+                boolean used = false;
+                for (int k = 0; k < i; k += BOX_SIZE)
+                    used |= candidate.rows[k] / BOX_SIZE == row / BOX_SIZE;
+                if (!used)
+                    allowed[count++] = row;
+            }
+        }
+
+        int[] rows = new int[count];
+        System.arraycopy(allowed, 0, rows, 0, count);
+        return rows;
+    }
+
+    // the digits that are not in the puzzle get the labels left, in increasing order
+    private static int[] completeLabels(int[] labels, int nextLabel) {
+        int[] complete = labels.clone();
+        for (int d = 1; d < complete.length; d++)
+            if (complete[d] == 0)
+                complete[d] = nextLabel++;
+        return complete;
+    }
+
+    // the puzzle with its digits relabeled in order of first appearance
+    private static Canonical relabel(int[][] board) {
+        int side = board.length;
+        int[] order = new int[side];
+        for (int k = 0; k < side; k++)
+            order[k] = k;
+
+        int[] labels = new int[side + 1];
+        int nextLabel = 1;
+        int[][] canonical = new int[side][side];
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                int digit = board[r][c];
+                if (digit != 0 && labels[digit] == 0)
+                    labels[digit] = nextLabel++;
+                canonical[r][c] = labels[digit];
+            }
+        }
+        return new Canonical(false, order, order, completeLabels(labels, nextLabel), canonical);
+    }
+
+    // the side of the puzzle
+    private static int validate(int[][] board) {
+        if (board == null)
+            throw new IllegalArgumentException("Board is null");
+
+        int side = board.length, boxSize = (int) Math.round(Math.sqrt(side));
+        if (side == 0 || boxSize * boxSize != side)
+            throw new IllegalArgumentException("Invalid board size: " + side);
+        for (int[] row : board) {
+            if (row == null || row.length != side)
+                throw new IllegalArgumentException("Board is not square");
+            for (int digit : row)
+                if (digit < 0 || digit > side)
+                    throw new IllegalArgumentException("Invalid digit: " + digit);
+        }
+        return side;
+    }
+
+    private static int[][] columnOrders() {
+        int[][] permutations = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+        int[][] orders = new int[permutations.length * permutations.length * permutations.length * permutations.length][];
+        int count = 0;
+        for (int[] stacks : permutations)
+            for (int[] first : permutations)
+                for (int[] second : permutations)
+                    for (int[] third : permutations) {
+                        int[][] within = {first, second, third};
+                        int[] order = new int[SIZE];
+                        for (int s = 0; s < BOX_SIZE; s++)
+                            for (int k = 0; k < BOX_SIZE; k++)
+                                order[s * BOX_SIZE + k] = stacks[s] * BOX_SIZE + within[s][k];
+                        orders[count++] = order;
+                    }
+        return orders;
+    }
+
+    static int[][] copy(int[][] board) {
+        int[][] copy = new int[board.length][];
+        for (int r = 0; r < board.length; r++)
+            copy[r] = board[r].clone();
+        return copy;
+    }
+
+}
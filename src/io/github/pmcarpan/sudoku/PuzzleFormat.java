@@ -0,0 +1,100 @@
+package io.github.pmcarpan.sudoku;
+
+// single line puzzle format, one character per cell in row-major order
+// (81 characters for a 9 x 9 board, 256 for 16 x 16, 625 for 25 x 25)
+// '0' or '.' is an empty cell, '1' to '9' are digits 1 to 9 
+// and 'A' to 'Z' (any case) are digits 10 to 35
+public class PuzzleFormat {
+
+    private static final int EMPTY = 0;
+
+    // do not instantiate
+    private PuzzleFormat() {
+    }
+
+    // throws IllegalArgumentException if line is null, has an invalid length
+    // or contains an invalid character
+    public static int[][] parse(CharSequence line) {
+        if (line == null)
+            throw new IllegalArgumentException("Puzzle line is null");
+
+        int length = sideLength(line.length());
+        int[][] board = new int[length][length];
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < length; j++) {
+                int digit = toDigit(line.charAt(i * length + j));
+                if (digit < 0 || digit > length)
+                    throw new IllegalArgumentException("Invalid character in puzzle line: " + 
+                                                       line.charAt(i * length + j));
+                board[i][j] = digit;
+            }
+        }
+        return board;
+    }
+
+    public static String format(int[][] board) {
+        StringBuilder sb = new StringBuilder(board.length * board.length);
+        for (int[] row : board) {
+            for (int digit : row) {
+                sb.append(toChar(digit));
+            }
+        }
+        return sb.toString();
+    }
+
+    // true if a digit appears twice in a row, column or box of a square board
+    // (side length up to 49, the digits of a row fit in a long)
+    static boolean hasConflict(int[][] board) {
+        int length = board.length, boxSize = (int) Math.round(Math.sqrt(length));
+        long[] rows = new long[length], columns = new long[length], boxes = new long[length];
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (board[i][j] == EMPTY)
+                    continue;
+
+                long bit = 1L << board[i][j];
+                int box = i / boxSize * boxSize + j / boxSize;
+                if (((rows[i] | columns[j] | boxes[box]) & bit) != 0)
+                    return true;
+                rows[i] |= bit;
+                columns[j] |= bit;
+                boxes[box] |= bit;
+            }
+        }
+        return false;
+    }
+
+    // side length of a board with the given number of cells
+    // throws IllegalArgumentException if cells is not the square of a square,
+    // or the box size is not one the solvers take (see SudokuSolver.MAX_BOX_SIZE)
+    static int sideLength(int cells) {
+        int length = (int) Math.round(Math.sqrt(cells)),
+                boxSize = (int) Math.round(Math.sqrt(length));
+        if (length * length != cells || boxSize * boxSize != length 
+                || boxSize < SudokuSolver.MIN_BOX_SIZE || boxSize > SudokuSolver.MAX_BOX_SIZE)
+            throw new IllegalArgumentException("Invalid puzzle line length: " + cells);
+        return length;
+    }
+
+    // digit of a cell character, -1 if it is not valid
+    static int toDigit(char c) {
+        if (c == '.' || c == '0')
+            return EMPTY;
+        if (c >= '1' && c <= '9')
+            return c - '0';
+        if (c >= 'A' && c <= 'Z')
+            return c - 'A' + 10;
+        if (c >= 'a' && c <= 'z')
+            return c - 'a' + 10;
+        return -1;
+    }
+
+    static char toChar(int digit) {
+        if (digit == EMPTY)
+            return '.';
+        if (digit <= 9)
+            return (char) ('0' + digit);
+        return (char) ('A' + digit - 10);
+    }
+
+}
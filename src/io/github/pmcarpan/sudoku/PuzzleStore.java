@@ -0,0 +1,126 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// read-only, memory-mapped binary puzzle file written by PuzzleStoreWriter
+// layout: 16 byte header (magic "SDKP", version, format, box size, 
+// reserved byte, puzzle count as long) followed by fixed size packed boards
+// puzzles are read in place through bufferFor and offsetOf, without copying
+// files larger than 2 GB are mapped in several segments
+public class PuzzleStore implements Closeable {
+
+    static final int MAGIC = 0x53444B50; // "SDKP"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final PackedBoard.Format format;
+    private final int boxSize, recordSize;
+    private final long count;
+
+    // records per mapped segment, so that a record never spans two segments
+    private final long recordsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    // throws IOException if the file cannot be read or is not a puzzle store
+    public PuzzleStore(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0)
+                    break;
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC)
+                throw new IOException("Not a puzzle store: " + path);
+            if (header.get(4) != VERSION)
+                throw new IOException("Unsupported puzzle store version: " + header.get(4));
+            if (header.get(5) < 0 || header.get(5) >= PackedBoard.Format.values().length)
+                throw new IOException("Unknown puzzle store format: " + header.get(5));
+
+            format = PackedBoard.Format.values()[header.get(5)];
+            boxSize = header.get(6);
+            format.check(boxSize);
+            count = header.getLong(8);
+            recordSize = format.size(boxSize * boxSize * boxSize * boxSize);
+
+            if (HEADER_SIZE + count * recordSize > channel.size())
+                throw new IOException("Truncated puzzle store: " + path);
+
+            recordsPerSegment = Integer.MAX_VALUE / recordSize;
+            int segmentCount = (int) ((count + recordsPerSegment - 1) / recordsPerSegment);
+            segments = new MappedByteBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; s++) {
+                long first = s * recordsPerSegment;
+                long records = Math.min(recordsPerSegment, count - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, 
+                                          HEADER_SIZE + first * recordSize, records * recordSize);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // true if the file starts with the puzzle store magic number
+    public static boolean isStore(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0)
+                    return false;
+            }
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getBoxSize() {
+        return boxSize;
+    }
+
+    public PackedBoard.Format getFormat() {
+        return format;
+    }
+
+    // the mapped segment holding the puzzle
+    // only absolute reads are used, so it can be shared between threads
+    public ByteBuffer bufferFor(long index) {
+        checkIndex(index);
+        return segments[(int) (index / recordsPerSegment)];
+    }
+
+    // offset of the puzzle in bufferFor(index)
+    public int offsetOf(long index) {
+        checkIndex(index);
+        return (int) ((index % recordsPerSegment) * recordSize);
+    }
+
+    public int[][] get(long index) {
+        return PackedBoard.unpack(bufferFor(index), offsetOf(index), format, boxSize);
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Puzzle index " + index + " of " + count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
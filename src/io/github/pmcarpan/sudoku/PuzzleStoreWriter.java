@@ -0,0 +1,129 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// writes a binary puzzle file that can be read with PuzzleStore
+// the puzzle count in the header is filled in on close
+// usage: PuzzleStoreWriter <text input> <store output> [BYTE | NIBBLE]
+// converts a file with one puzzle per line (see PuzzleFormat)
+public class PuzzleStoreWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final PackedBoard.Format format;
+    private final int boxSize, recordSize;
+    private final ByteBuffer buffer;
+    private long count;
+
+    // throws IllegalArgumentException if the format cannot hold boards of the box size
+    public PuzzleStoreWriter(Path path, PackedBoard.Format format, int boxSize) throws IOException {
+        if (format == null)
+            throw new IllegalArgumentException("Format is null");
+        format.check(boxSize);
+
+        this.format = format;
+        this.boxSize = boxSize;
+        recordSize = format.size(boxSize * boxSize * boxSize * boxSize);
+        buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, recordSize)).order(ByteOrder.BIG_ENDIAN);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        channel.position(PuzzleStore.HEADER_SIZE);
+    }
+
+    // throws IllegalArgumentException if the board is invalid or of another box size
+    public void append(int[][] board) throws IOException {
+        if (SudokuSolver.validate(board) != boxSize)
+            throw new IllegalArgumentException("Input board size invalid");
+
+        if (buffer.remaining() < recordSize)
+            flush();
+
+        PackedBoard.pack(board, buffer, buffer.position(), format);
+        buffer.position(buffer.position() + recordSize);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PuzzleStore.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(PuzzleStore.MAGIC)
+              .put(PuzzleStore.VERSION)
+              .put((byte) format.ordinal())
+              .put((byte) boxSize)
+              .put((byte) 0)
+              .putLong(count);
+        header.flip();
+        
+        long position = 0;
+        while (header.hasRemaining())
+            position += channel.write(header, position);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeHeader();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: PuzzleStoreWriter <text input> <store output> [BYTE | NIBBLE]");
+            return;
+        }
+
+        PackedBoard.Format format = args.length > 2 ? PackedBoard.Format.valueOf(args[2].toUpperCase()) 
+                                                    : PackedBoard.Format.NIBBLE;
+
+        PuzzleStoreWriter writer = null;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                int[][] board = PuzzleFormat.parse(line);
+                if (writer == null) {
+                    int boxSize = (int) Math.round(Math.sqrt(board.length));
+                    writer = new PuzzleStoreWriter(Paths.get(args[1]), format, boxSize);
+                }
+                writer.append(board);
+            }
+        }
+        finally {
+            if (writer != null)
+                writer.close();
+        }
+
+        System.out.println("Wrote " + (writer == null ? 0 : writer.getCount()) + " puzzles");
+    }
+
+}
@@ -0,0 +1,141 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.opencv.core.Mat;
+
+// compares the accuracy and latency of the digit recognizers on labelled images
+// usage: RecognizerComparison [labelled image list] [model file]
+// the list defaults to puzzles/images.txt (see KnnDigitTrainer for the format)
+// and the model to KnnDigitRecognizer.DEFAULT_MODEL
+// the model is trained on the images of puzzles/images.txt, so on them it scores its training data;
+// the held out rows score every image with a model trained on the glyphs and the other images only,
+// which is closer to what a new photo gets
+// a recognizer that cannot be created (e.g. SingleDigitOCR without Tesseract) is reported
+// and does not stop the others
+public class RecognizerComparison {
+
+    public static void main(String[] args) throws IOException {
+        List<String[]> images = KnnDigitTrainer.readImageList(Paths.get(args.length > 0 ? args[0] : "puzzles/images.txt"));
+        String model = args.length > 1 ? args[1] : KnnDigitRecognizer.DEFAULT_MODEL;
+
+        // the non-blank cells of every image and their expected digits (0 if the puzzle has none)
+        List<List<Mat>> cells = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        int count = 0;
+        for (String[] image : images) {
+            int[][] puzzle = PuzzleFormat.parse(image[1]);
+            Mat[] imageCells = SudokuExtractor.getCells(image[0]);
+            List<Mat> nonBlank = new ArrayList<>();
+            List<Integer> digits = new ArrayList<>();
+            for (int index = 0; index < 81; index++) {
+                if (imageCells[index] != null) {
+                    nonBlank.add(imageCells[index]);
+                    digits.add(puzzle[index / 9][index % 9]);
+                }
+            }
+            cells.add(nonBlank);
+            expected.add(digits);
+            count += nonBlank.size();
+        }
+
+        System.out.println(images.size() + " images, " + count + " non-blank cells");
+        System.out.printf("%-48s %9s %10s %12s%n", "Recognizer", "Correct", "Accuracy", "ms / cell");
+
+        compare("SingleDigitOCR", SingleDigitOCR::getInstance, cells, expected);
+        compare("KnnDigitRecognizer " + model, () -> KnnDigitRecognizer.load(Paths.get(model)), cells, expected);
+        compareHeldOut(images, cells, expected);
+    }
+
+    // one row for the recognizer on all images
+    private static void compare(String name, Callable<DigitRecognizer> factory,
+                                List<List<Mat>> cells, List<List<Integer>> expected) {
+        DigitRecognizer recognizer;
+        try {
+            recognizer = factory.call();
+        }
+        catch (Exception | LinkageError e) {
+            System.out.printf("%-48s unavailable: %s%n", name, e.getMessage() != null ? e.getMessage() : e);
+            return;
+        }
+
+        int correct = 0, total = 0;
+        long elapsed = 0;
+        for (int k = 0; k < cells.size(); k++) {
+            // warm up before measuring
+            recognizeAll(recognizer, cells.get(k), new int[cells.get(k).size()]);
+
+            int[] digits = new int[cells.get(k).size()];
+            long start = System.nanoTime();
+            recognizeAll(recognizer, cells.get(k), digits);
+            elapsed += System.nanoTime() - start;
+
+            correct += countCorrect(digits, expected.get(k));
+            total += digits.length;
+        }
+        printRow(name, correct, total, elapsed);
+    }
+
+    // one row for every image, recognized by a kNN model trained without it, and one for all of them
+    private static void compareHeldOut(List<String[]> images, List<List<Mat>> cells, List<List<Integer>> expected) {
+        if (images.size() < 2) {
+            System.out.printf("%-48s needs two images or more%n", "KnnDigitRecognizer held out");
+            return;
+        }
+
+        int correct = 0, total = 0;
+        long elapsed = 0;
+        for (int k = 0; k < images.size(); k++) {
+            List<byte[]> samples = new ArrayList<>();
+            List<Integer> labels = new ArrayList<>();
+            KnnDigitTrainer.addGlyphs(samples, labels);
+            for (int other = 0; other < images.size(); other++)
+                if (other != k)
+                    KnnDigitTrainer.addImage(images.get(other), samples, labels);
+            KnnDigitRecognizer recognizer = new KnnDigitRecognizer(samples, labels);
+
+            recognizeAll(recognizer, cells.get(k), new int[cells.get(k).size()]);
+            int[] digits = new int[cells.get(k).size()];
+            long start = System.nanoTime();
+            recognizeAll(recognizer, cells.get(k), digits);
+            long imageElapsed = System.nanoTime() - start;
+
+            int imageCorrect = countCorrect(digits, expected.get(k));
+            printRow("KnnDigitRecognizer held out " + images.get(k)[0], imageCorrect, digits.length, imageElapsed);
+            correct += imageCorrect;
+            total += digits.length;
+            elapsed += imageElapsed;
+        }
+        printRow("KnnDigitRecognizer held out", correct, total, elapsed);
+    }
+
+    // one call per cell, a cell that is not recognized gets 0
+    private static void recognizeAll(DigitRecognizer recognizer, List<Mat> cells, int[] digits) {
+        for (int k = 0; k < digits.length; k++) {
+            try {
+                digits[k] = recognizer.recognize(cells.get(k));
+            }
+            catch (IllegalStateException e) {
+                digits[k] = 0;
+            }
+        }
+    }
+
+    private static int countCorrect(int[] digits, List<Integer> expected) {
+        int correct = 0;
+        for (int k = 0; k < digits.length; k++)
+            if (digits[k] == expected.get(k))
+                correct++;
+        return correct;
+    }
+
+    private static void printRow(String name, int correct, int total, long elapsedNanos) {
+        System.out.printf("%-48s %4d / %-4d %9.1f%% %12.3f%n", name, correct, total,
+                          100.0 * correct / Math.max(1, total), elapsedNanos / 1e6 / Math.max(1, total));
+    }
+
+}
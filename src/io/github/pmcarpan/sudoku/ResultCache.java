@@ -0,0 +1,104 @@
+package io.github.pmcarpan.sudoku;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// results of resubmitted images and puzzles, in two tiers (see BoundedCache):
+// the SHA-256 of the bytes of an image to the puzzle extracted from it, and
+// the canonical form of a puzzle (see PuzzleCanonicalizer) to its solution,
+// so a puzzle shares its solution with every relabeled, permuted or transposed copy of it
+// failed extractions are not cached, puzzles without a solution are
+// e.g.
+//     int[][] puzzle = cache.extract(bytes, b -> new SudokuExtractor(b, options).getExtractedArray());
+//     int[][] solution = cache.solve(puzzle, SolverEngine.ITERATIVE);
+public class ResultCache {
+
+    // cached for puzzles that have no solution
+    private static final int[][] NO_SOLUTION = new int[0][];
+
+    private final BoundedCache<String, int[][]> images, puzzles;
+
+    // throws IllegalArgumentException if a size or ttl is not positive
+    public ResultCache(int maxImages, int maxPuzzles, long ttl, TimeUnit unit) {
+        images = new BoundedCache<>(maxImages, ttl, unit);
+        puzzles = new BoundedCache<>(maxPuzzles, ttl, unit);
+    }
+
+    // the puzzle extracted from the image, by extractor if it is not cached
+    // throws IllegalArgumentException if image or extractor is null, and whatever extractor throws
+    public int[][] extract(byte[] image, Function<byte[], int[][]> extractor) {
+        if (image == null || extractor == null)
+            throw new IllegalArgumentException("Image and extractor must not be null");
+
+        String key = sha256(image);
+        int[][] puzzle = images.get(key);
+        if (puzzle == null) {
+            puzzle = PuzzleCanonicalizer.copy(extractor.apply(image));
+            images.put(key, puzzle);
+        }
+        return PuzzleCanonicalizer.copy(puzzle);
+    }
+
+    // the solution of the puzzle, solved by engine if no equivalent puzzle is cached
+    // null if the puzzle has no solution
+    // a puzzle too symmetric to canonicalize (see PuzzleCanonicalizer.canonicalize) is solved every time
+    // throws IllegalArgumentException if puzzle is not a valid puzzle or engine is null
+    public int[][] solve(int[][] puzzle, SolverEngine engine) {
+        if (engine == null)
+            throw new IllegalArgumentException("Engine is null");
+
+        PuzzleCanonicalizer.Canonical canonical = PuzzleCanonicalizer.canonicalize(puzzle);
+        if (canonical == null) {
+            Solver solver = engine.create(puzzle);
+            return solver.solve() ? solver.getBoard() : null;
+        }
+
+        int[][] solution = puzzles.get(canonical.getKey());
+        if (solution == null) {
+            // the canonical puzzle itself is solved, its solution fits every puzzle equivalent to it
+            Solver solver = engine.create(canonical.getBoard());
+            solution = solver.solve() ? solver.getBoard() : NO_SOLUTION;
+            puzzles.put(canonical.getKey(), solution);
+        }
+        return solution == NO_SOLUTION ? null : canonical.fromCanonical(solution);
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(2 * digest.length);
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public BoundedCache<String, int[][]> getImageCache() {
+        return images;
+    }
+
+    public BoundedCache<String, int[][]> getPuzzleCache() {
+        return puzzles;
+    }
+
+    public void clear() {
+        images.clear();
+        puzzles.clear();
+    }
+
+    // the counts of both tiers as a JSON object
+    public String toJson() {
+        return "{\"images\":" + images.toJson() + ",\"puzzles\":" + puzzles.toJson() + "}";
+    }
+
+    public String toString() {
+        return "ResultCache[images=" + images + ", puzzles=" + puzzles + "]";
+    }
+
+}
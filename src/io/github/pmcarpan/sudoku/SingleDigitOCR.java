@@ -1,46 +1,323 @@
 package io.github.pmcarpan.sudoku;
 
-import java.io.File;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import com.sun.jna.Pointer;
 
 import net.sourceforge.tess4j.ITessAPI;
-import net.sourceforge.tess4j.ITesseract;
-import net.sourceforge.tess4j.Tesseract;
-import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.TessAPI1;
+import net.sourceforge.tess4j.Word;
+
+// the Tesseract DigitRecognizer, also usable through its static methods
+// a Tesseract engine is not thread safe, so every recognizer keeps a pool of engines 
+// for each page segmentation mode it uses, and recognizes on as many threads at once
+// as it has engines
+// the constructor initializes one engine per pool, the pools add more while all their
+// engines are busy (see TesseractPool), and close releases them
+public class SingleDigitOCR implements DigitRecognizer, AutoCloseable {
+
+    // white space around and between the cells of a montage, as a fraction of the cell width
+    private static final double MONTAGE_GAP = 0.5;
+
+    // the most engines of each mode of the shared instance, one per core 
+    // unless the system property sudoku.ocr.engines sets the number
+    // reading it does not load Tesseract
+    public static final int DEFAULT_ENGINES = 
+            Integer.getInteger("sudoku.ocr.engines", Runtime.getRuntime().availableProcessors());
+
+    // the shared instance is created on the first getInstance call, not when this class is loaded
+    private static class Holder {
+        static final SingleDigitOCR INSTANCE = new SingleDigitOCR(DEFAULT_ENGINES);
+    }
+
+    // charPool reads a single character, linePool a line of them (a montage)
+    private final TesseractPool charPool, linePool;
+
+    // pools of up to engines engines each
+    // throws IllegalArgumentException if engines is not positive
+    // throws IllegalStateException if an engine cannot be initialized (see TesseractPool)
+    public SingleDigitOCR(int engines) {
+        charPool = new TesseractPool(1, engines, ITessAPI.TessPageSegMode.PSM_SINGLE_CHAR);
+        try {
+            linePool = new TesseractPool(1, engines, ITessAPI.TessPageSegMode.PSM_SINGLE_LINE);
+        }
+        catch (RuntimeException e) {
+            charPool.close();
+            throw e;
+        }
+    }
 
-public class SingleDigitOCR {
-    private static ITesseract instance;
+    // used by the static methods and by ExtractorOptions without a recognizer,
+    // with pools of up to DEFAULT_ENGINES engines
+    // throws ExceptionInInitializerError (on the first call, NoClassDefFoundError after it)
+    // if an engine cannot be initialized, e.g. the library or the eng data is missing
+    public static SingleDigitOCR getInstance() {
+        return Holder.INSTANCE;
+    }
 
-    static {
-        instance = new Tesseract();
-        instance.setLanguage("eng");
-        instance.setPageSegMode(ITessAPI.TessPageSegMode.PSM_SINGLE_CHAR);
-        instance.setTessVariable("tessedit_char_whitelist", "0123456789");
+    // release the engines of both pools, see TesseractPool.close
+    @Override
+    public void close() {
+        charPool.close();
+        linePool.close();
     }
-    
-    // do not instantiate
-    private SingleDigitOCR() {
+
+    public TesseractPool getCharPool() {
+        return charPool;
+    }
+
+    public TesseractPool getLinePool() {
+        return linePool;
     }
 
     // expected to return digit between 1 to 9 (both inclusive)
-    // throws IllegalArgumentExcepton if filePath is null
+    // throws IllegalArgumentExcepton if filePath is null or OpenCV cannot read the image
     // throws IllegalStateException if OCR fails
     // throws IllegalStateException if a digit between 1 to 9 is not detected
     public static int getDigit(String filePath) {
+        return getInstance().recognize(filePath);
+    }
+
+    // see recognize(Mat)
+    public static int getDigit(Mat cell) {
+        return getInstance().recognize(cell);
+    }
+
+    // see recognize(List)
+    public static int[] getDigits(List<Mat> cells) {
+        return getInstance().recognize(cells);
+    }
+
+    // see getDigit(String)
+    public int recognize(String filePath) {
         if (filePath == null) 
             throw new IllegalArgumentException("File path is null");
 
-        File imageFile = new File(filePath);
+        SudokuExtractor.loadLibrary();
+        Mat cell = Imgcodecs.imread(filePath, Imgcodecs.IMREAD_GRAYSCALE);
+        try {
+            if (cell.empty())
+                throw new IllegalArgumentException("Could not read the image " + filePath);
+            return recognize(cell);
+        }
+        finally {
+            cell.release();
+        }
+    }
+
+    // same as getDigit(String), but reads the pixels of a single channel 8 bit image
+    // (e.g. a cropped cell) directly, without writing and decoding an image file
+    // throws IllegalArgumentExcepton if cell is null, empty or not CV_8UC1
+    @Override
+    public int recognize(Mat cell) {
+        if (cell == null || cell.empty())
+            throw new IllegalArgumentException("Cell image is null or empty");
+        if (cell.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Cell image must be CV_8UC1");
 
         String result = null;
 
+        ByteBuffer pixels = toBuffer(cell);
+        ITessAPI.TessBaseAPI engine = checkout(charPool);
+        try {
+            TessAPI1.TessBaseAPISetImage(engine, pixels, cell.cols(), cell.rows(), 1, cell.cols());
+            Pointer text = TessAPI1.TessBaseAPIGetUTF8Text(engine);
+            if (text != null) {
+                result = text.getString(0);
+                TessAPI1.TessDeleteText(text);
+            }
+        }
+        finally {
+            TessAPI1.TessBaseAPIClear(engine);
+            charPool.checkin(engine);
+        }
+
+        return toDigit(result);
+    }
+
+    // digits of many cells with a single OCR call, in the order of cells
+    // the cells (CV_8UC1, dark digit on white) are placed in one row with white space 
+    // between them, and every recognized symbol is mapped back to a cell by the 
+    // position of its bounding box
+    // cells that get no symbol, more than one or a symbol that is not a digit 
+    // from 1 to 9 are read again one by one with getDigit(Mat)
+    // throws IllegalArgumentExcepton if cells is null or a cell is null, empty or not CV_8UC1
+    // throws IllegalStateException if a digit between 1 to 9 is not detected in a cell
+    @Override
+    public int[] recognize(List<Mat> cells) {
+        DigitReading[] readings = readMontage(cells);
+        int[] digits = new int[readings.length];
+        for (int k = 0; k < digits.length; k++)
+            digits[k] = readings[k] != DigitReading.NONE ? readings[k].getDigit() : recognize(cells.get(k));
+        return digits;
+    }
+
+    // the digit of the cell with the confidence Tesseract gives its symbol
+    // Tesseract does not rank alternatives, so a reading has one digit at most
+    @Override
+    public DigitReading read(Mat cell) {
+        if (cell == null || cell.empty())
+            throw new IllegalArgumentException("Cell image is null or empty");
+        if (cell.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Cell image must be CV_8UC1");
+
+        List<Word> symbols = symbols(charPool, cell);
+        if (symbols == null || symbols.size() != 1)
+            return DigitReading.NONE;
+        return toReading(symbols.get(0));
+    }
+
+    // same as recognize(List), with the confidences of the montage (see read(Mat))
+    // the cells read again one by one are NONE if they still have no digit
+    @Override
+    public DigitReading[] read(List<Mat> cells) {
+        DigitReading[] readings = readMontage(cells);
+        for (int k = 0; k < readings.length; k++)
+            if (readings[k] == DigitReading.NONE)
+                readings[k] = read(cells.get(k));
+        return readings;
+    }
+
+    // the readings of the cells in one montage (see recognize(List)), NONE for the cells
+    // that get no symbol, more than one or a symbol that is not a digit from 1 to 9
+    private DigitReading[] readMontage(List<Mat> cells) {
+        if (cells == null)
+            throw new IllegalArgumentException("Cell list is null");
+
+        DigitReading[] readings = new DigitReading[cells.size()];
+        Arrays.fill(readings, DigitReading.NONE);
+        if (cells.isEmpty())
+            return readings;
+
+        int width = 0, height = 0;
+        for (Mat cell : cells) {
+            if (cell == null || cell.empty())
+                throw new IllegalArgumentException("Cell image is null or empty");
+            if (cell.type() != CvType.CV_8UC1)
+                throw new IllegalArgumentException("Cell image must be CV_8UC1");
+            width = Math.max(width, cell.cols());
+            height = Math.max(height, cell.rows());
+        }
+
+        int gap = (int) Math.ceil(width * MONTAGE_GAP), pitch = width + gap;
+        Mat montage = new Mat(height + 2 * gap, gap + cells.size() * pitch, CvType.CV_8UC1, new Scalar(255));
+        for (int k = 0; k < cells.size(); k++) {
+            Mat cell = cells.get(k);
+            Mat slot = montage.submat(new Rect(gap + k * pitch, gap, cell.cols(), cell.rows()));
+            cell.copyTo(slot);
+            slot.release();
+        }
+
+        List<Word> symbols = symbols(linePool, montage);
+        montage.release();
+        if (symbols == null)
+            return readings;
+
+        // the number of symbols of every cell, only the cells with one are read
+        int[] counts = new int[readings.length];
+        for (Word symbol : symbols) {
+            Rectangle box = symbol.getBoundingBox();
+            int k = (box.x + box.width / 2 - gap / 2) / pitch;
+            if (k < 0 || k >= readings.length)
+                continue;
+
+            readings[k] = ++counts[k] == 1 ? toReading(symbol) : DigitReading.NONE;
+        }
+        return readings;
+    }
+
+    // the symbols an engine of the pool recognizes in the image, with their confidences and
+    // bounding boxes, null if recognition fails
+    private static List<Word> symbols(TesseractPool pool, Mat image) {
+        int level = ITessAPI.TessPageIteratorLevel.RIL_SYMBOL;
+        ByteBuffer pixels = toBuffer(image);
+        ITessAPI.TessBaseAPI engine = checkout(pool);
+        try {
+            TessAPI1.TessBaseAPISetImage(engine, pixels, image.cols(), image.rows(), 1, image.cols());
+            if (TessAPI1.TessBaseAPIRecognize(engine, null) != 0)
+                return null;
+
+            List<Word> symbols = new ArrayList<>();
+            ITessAPI.TessResultIterator symbol = TessAPI1.TessBaseAPIGetIterator(engine);
+            if (symbol == null)
+                return symbols;
+            try {
+                ITessAPI.TessPageIterator page = TessAPI1.TessResultIteratorGetPageIterator(symbol);
+                IntBuffer left = IntBuffer.allocate(1), top = IntBuffer.allocate(1),
+                        right = IntBuffer.allocate(1), bottom = IntBuffer.allocate(1);
+                do {
+                    Pointer text = TessAPI1.TessResultIteratorGetUTF8Text(symbol, level);
+                    if (text == null)
+                        continue;
+                    String s = text.getString(0);
+                    TessAPI1.TessDeleteText(text);
+
+                    float confidence = TessAPI1.TessResultIteratorConfidence(symbol, level);
+                    TessAPI1.TessPageIteratorBoundingBox(page, level, left, top, right, bottom);
+                    symbols.add(new Word(s, confidence, new Rectangle(left.get(0), top.get(0),
+                            right.get(0) - left.get(0), bottom.get(0) - top.get(0))));
+                } while (TessAPI1.TessResultIteratorNext(symbol, level) == ITessAPI.TRUE);
+            }
+            finally {
+                TessAPI1.TessResultIteratorDelete(symbol);
+            }
+            return symbols;
+        }
+        finally {
+            TessAPI1.TessBaseAPIClear(engine);
+            pool.checkin(engine);
+        }
+    }
+
+    // NONE if the symbol is not a digit from 1 to 9
+    private static DigitReading toReading(Word symbol) {
+        String text = symbol.getText() == null ? "" : symbol.getText().trim();
+        if (text.length() != 1 || text.charAt(0) < '1' || text.charAt(0) > '9')
+            return DigitReading.NONE;
+
+        // Tesseract's confidence is a percentage
+        return DigitReading.of(text.charAt(0) - '0', Math.max(0, Math.min(1, symbol.getConfidence() / 100.0)));
+    }
+
+    // throws IllegalStateException if interrupted while waiting for an engine
+    private static ITessAPI.TessBaseAPI checkout(TesseractPool pool) {
         try {
-            result = instance.doOCR(imageFile);
-        } 
-        catch (TesseractException e) {
-            System.out.println("Error while performing OCR. Message: " + e.getMessage());
-            e.printStackTrace();
+            return pool.checkout();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an OCR engine", e);
         }
+    }
+
+    // copy the pixels into a direct buffer, one byte per pixel and no padding between the rows,
+    // for TessBaseAPISetImage
+    static ByteBuffer toBuffer(Mat cell) {
+        byte[] pixels = new byte[cell.cols() * cell.rows()];
+
+        // a view into a larger image (e.g. a crop) has gaps between its rows
+        Mat continuous = cell.isContinuous() ? cell : cell.clone();
+        continuous.get(0, 0, pixels);
+        if (continuous != cell)
+            continuous.release();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels).flip();
+        return buffer;
+    }
 
+    private static int toDigit(String result) {
         if (result == null || result.length() == 0)
             throw new IllegalStateException("Could not detect anything");
 
@@ -55,4 +332,31 @@ public class SingleDigitOCR {
                                         " Detected UNICODE: " + digit);
     }
 
+    // smoke run of the TessAPI1 calls on the sample images (or the given ones): the cells of
+    // every image are read with one montage and then one by one on all cores, which adds
+    // engines to the pool of single characters, and the puzzles and the pools are printed
+    // an image that fails is reported and does not stop the others
+    // usage: SingleDigitOCR [image ...]
+    public static void main(String[] args) {
+        String[] images = args.length > 0 ? args 
+                : new String[] {"images/sudokubig.jpg", "images/sudoku3.jpg", "images/sudoku89.jpg"};
+
+        try (SingleDigitOCR ocr = new SingleDigitOCR(DEFAULT_ENGINES)) {
+            ExtractorOptions montage = new ExtractorOptions().setRecognizer(ocr).setBatchOcr(true),
+                    single = new ExtractorOptions().setRecognizer(ocr).setBatchOcr(false).setParallel(true);
+            for (String image : images) {
+                System.out.println(image);
+                try {
+                    System.out.println("  montage     " + PuzzleFormat.format(new SudokuExtractor(image, montage).getExtractedArray()));
+                    System.out.println("  one by one  " + PuzzleFormat.format(new SudokuExtractor(image, single).getExtractedArray()));
+                }
+                catch (RuntimeException e) {
+                    System.out.println("  failed: " + e.getMessage());
+                }
+            }
+            System.out.println(ocr.getCharPool());
+            System.out.println(ocr.getLinePool());
+        }
+    }
+
 }
@@ -0,0 +1,16 @@
+package io.github.pmcarpan.sudoku;
+
+// common interface of the sudoku solving engines
+public interface Solver {
+
+    // tries to solve the board in place
+    // returns true if a solution was found
+    boolean solve();
+
+    // number of search nodes visited by the last call to solve
+    long getNodeCount();
+
+    // returns a copy of the current board
+    int[][] getBoard();
+
+}
@@ -0,0 +1,69 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// times a solver engine on a file with one puzzle per line (see PuzzleFormat)
+// empty lines and lines starting with '#' are skipped
+// usage: SolverBenchmark <puzzle file> [engine] [max milliseconds per puzzle]
+// exits with status 1 if a puzzle is not solved or takes longer than the maximum
+public class SolverBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: SolverBenchmark <puzzle file> [engine] [max milliseconds per puzzle]");
+            return;
+        }
+
+        List<int[][]> puzzles = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                puzzles.add(PuzzleFormat.parse(line));
+            }
+        }
+
+        SolverEngine engine = SolverEngine.fromName(args.length > 1 ? args[1] : null);
+        double maxMillis = args.length > 2 ? Double.parseDouble(args[2]) : Double.POSITIVE_INFINITY;
+
+        // warm up the JIT before measuring
+        for (int[][] puzzle : puzzles) {
+            engine.create(puzzle).solve();
+        }
+
+        int solved = 0;
+        long totalNanos = 0, maxNanos = 0, totalNodes = 0;
+        for (int[][] puzzle : puzzles) {
+            long start = System.nanoTime();
+            Solver solver = engine.create(puzzle);
+            if (solver.solve())
+                solved++;
+            long elapsed = System.nanoTime() - start;
+
+            totalNanos += elapsed;
+            maxNanos = Math.max(maxNanos, elapsed);
+            totalNodes += solver.getNodeCount();
+        }
+
+        System.out.println("Engine:       " + engine);
+        System.out.println("Puzzles:      " + puzzles.size() + " (" + solved + " solved)");
+        System.out.printf("Total:        %.3f ms%n", totalNanos / 1e6);
+        System.out.printf("Puzzles/sec:  %.1f%n", puzzles.size() / (totalNanos / 1e9));
+        System.out.printf("Mean:         %.3f ms%n", totalNanos / 1e6 / puzzles.size());
+        System.out.printf("Max:          %.3f ms%n", maxNanos / 1e6);
+        System.out.printf("Mean nodes:   %.1f%n", (double) totalNodes / puzzles.size());
+
+        if (solved < puzzles.size() || maxNanos / 1e6 > maxMillis) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+}
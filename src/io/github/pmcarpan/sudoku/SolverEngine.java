@@ -0,0 +1,77 @@
+package io.github.pmcarpan.sudoku;
+
+import java.nio.ByteBuffer;
+
+// the available solver implementations
+public enum SolverEngine {
+
+    BACKTRACKING {
+        @Override
+        public Solver create(int[][] board) {
+            return new SudokuSolver(board);
+        }
+
+        @Override
+        public Solver create(ByteBuffer packed, int offset, PackedBoard.Format format, int boxSize) {
+            return new SudokuSolver(packed, offset, format, boxSize, SudokuSolver.Strategy.BRUTE_FORCE);
+        }
+    },
+
+    CONSTRAINT_PROPAGATION {
+        @Override
+        public Solver create(int[][] board) {
+            return new SudokuSolver(board, SudokuSolver.Strategy.CONSTRAINT_PROPAGATION);
+        }
+
+        @Override
+        public Solver create(ByteBuffer packed, int offset, PackedBoard.Format format, int boxSize) {
+            return new SudokuSolver(packed, offset, format, boxSize, SudokuSolver.Strategy.CONSTRAINT_PROPAGATION);
+        }
+    },
+
+    PARALLEL {
+        @Override
+        public Solver create(int[][] board) {
+            return new SudokuSolver(board, SudokuSolver.Strategy.PARALLEL);
+        }
+
+        @Override
+        public Solver create(ByteBuffer packed, int offset, PackedBoard.Format format, int boxSize) {
+            return new SudokuSolver(packed, offset, format, boxSize, SudokuSolver.Strategy.PARALLEL);
+        }
+    },
+
+    ITERATIVE {
+        @Override
+        public Solver create(int[][] board) {
+            return new IterativeSudokuSolver(board);
+        }
+    },
+
+    DANCING_LINKS {
+        @Override
+        public Solver create(int[][] board) {
+            return new DancingLinksSolver(board);
+        }
+    };
+
+    // throws IllegalArgumentException if board is invalid
+    public abstract Solver create(int[][] board);
+
+    // the board packed at offset (see PackedBoard and PuzzleStore), read without an int[][]
+    // by the engines that can, unpacked for the others
+    // throws IllegalArgumentException if the packed board is invalid
+    public Solver create(ByteBuffer packed, int offset, PackedBoard.Format format, int boxSize) {
+        return create(PackedBoard.unpack(packed, offset, format, boxSize));
+    }
+
+    // engine selected by name (case insensitive), BACKTRACKING if name is null
+    // throws IllegalArgumentException if there is no engine with that name
+    public static SolverEngine fromName(String name) {
+        if (name == null)
+            return BACKTRACKING;
+
+        return valueOf(name.trim().toUpperCase());
+    }
+
+}
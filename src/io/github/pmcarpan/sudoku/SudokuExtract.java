@@ -244,8 +244,7 @@ public class SudokuExtract {
                     continue;
                 }
                 
-                Imgcodecs.imwrite("images/digit.png", single_box_cropped);
-                sudoku_matrix[i][j] = SingleDigitOCR.getDigit("images/digit.png"); 
+                sudoku_matrix[i][j] = SingleDigitOCR.getDigit(single_box_cropped); 
                 // i = j = 10;
             }
         }
@@ -253,7 +252,8 @@ public class SudokuExtract {
         // System.out.println(Arrays.deepToString(sudoku_matrix));
 
         
-        SudokuSolver solver = new SudokuSolver(sudoku_matrix);
+        SolverEngine engine = SolverEngine.fromName(args.length > 0 ? args[0] : null);
+        Solver solver = engine.create(sudoku_matrix);
         System.out.println("Original Matrix: \n" + solver);
         boolean solved = solver.solve();
         if (solved) {
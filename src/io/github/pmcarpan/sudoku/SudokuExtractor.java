@@ -1,126 +1,646 @@
 package io.github.pmcarpan.sudoku;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Range;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
 import org.opencv.utils.Converters;
 
 public class SudokuExtractor {
+    // size of a rectified cell, and the CELL_CROP x CELL_CROP crop of it at CELL_BORDER
+    // that removes the grid lines (pixels 14 to 83, what the recognizers are trained on)
+    private static final int CELL_SIZE = 100, CELL_BORDER = 14, CELL_CROP = 70;
+
+    // half the side of the window an intersection is refined in by locateGridScaled,
+    // in pixels of the scaled image, wider than the grid lines and the error of the detection
+    private static final int REFINE_RADIUS = 4;
+
+    // lines of an orientation locateGridHough must find to fill in the others, and the largest
+    // slope of a segment to the axis of its orientation (about 14 degrees)
+    private static final int MIN_HOUGH_LINES = 6;
+    private static final double MAX_HOUGH_SLOPE = 0.25;
+
+    // Mats that never change, shared by all extractions
+    // a holder class, so they are created after the native library is loaded
+    private static class SharedMats {
+        static final Mat ELLIPSE_11 = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(11, 11)),
+                ELLIPSE_5 = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5)),
+                RECT_5 = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(5, 5));
+
+        // the 11 x 11 ellipse of preprocess, scaled from a cell of the sample images (about 55 px)
+        // to a rectified cell, for preprocessing the rectified grid (see getCellsScaled)
+        static final Mat ELLIPSE_21 = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(21, 21));
+
+        // corners of the square a cell is warped to by warpCells
+        static final Mat FINAL_CORNERS = Converters.vector_Point2f_to_Mat(Arrays.asList(
+                new Point(0, 0), new Point(CELL_SIZE, 0), new Point(0, CELL_SIZE), new Point(CELL_SIZE, CELL_SIZE)));
+    }
+
+    // buffers of a fixed size, reused by the extractions on the same thread
+    private static class Buffers {
+        final Mat singleBox = new Mat(), mapX = new Mat(), mapY = new Mat();
+        final float[] mapXData = new float[81 * CELL_SIZE * CELL_SIZE], mapYData = new float[81 * CELL_SIZE * CELL_SIZE];
+    }
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private static volatile boolean libraryLoaded;
+
     private int[][] extractedArray;
     
     public SudokuExtractor(String filePath) {
+        this(filePath, new ExtractorOptions());
+    }
+
+    public SudokuExtractor(String filePath, ExtractorOptions options) {
         if (filePath == null)
             throw new IllegalArgumentException("file path is NULL");
+        if (options == null)
+            throw new IllegalArgumentException("options are NULL");
         
-        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-        
-        Mat sudoku = Imgcodecs.imread(filePath, 0);
-        Mat preprocessedImage = new Mat();
-        preprocess(sudoku, preprocessedImage);
+        loadLibrary();
         
-        Mat mask = new Mat();
-        generateMask(preprocessedImage, mask);
-        
-        // Imgcodecs.imwrite("images/processed-image.png", preprocessedImage);
-        // Imgcodecs.imwrite("images/mask.png", mask);
-        
-        Mat verticalLines = new Mat(),
-                horizontalLines = new Mat();
-        generateGridLines(preprocessedImage, mask, verticalLines, 1, 0, 3, 13);
-        generateGridLines(preprocessedImage, mask, horizontalLines, 0, 1, 13, 3);
-        
-        // Imgcodecs.imwrite("images/thresh-vertical.png", verticalLines);
-        // Imgcodecs.imwrite("images/thresh-horizontal.png", horizontalLines);
-        
-        Mat intersections = new Mat();
-        getIntersections(verticalLines, horizontalLines, intersections);
-        
-        // Imgcodecs.imwrite("images/intersections.png", intersections);
-        
-        Point[] intersectionsArray = getIntersectionPoints(intersections);
-        
-        // Imgcodecs.imwrite("images/intersections.png", intersections);
+        // release the images of the extraction as soon as it is done
+        try (MatScope scope = new MatScope()) {
+            long start = options.getMetrics().start();
+            Mat sudoku = scope.track(Imgcodecs.imread(filePath, 0));
+            options.getMetrics().record(PipelineMetrics.Stage.DECODE, start);
+            
+            int[][] sudokuArray = getSudokuArray(extractCells(sudoku, options), options);
+            
+            extractedArray = sudokuArray;
+        }
+    }
+
+    // same as SudokuExtractor(String, ExtractorOptions) for the bytes of an encoded image, e.g. an upload
+    // throws IllegalArgumentException if OpenCV cannot decode the bytes
+    public SudokuExtractor(byte[] imageBytes, ExtractorOptions options) {
+        if (imageBytes == null)
+            throw new IllegalArgumentException("image bytes are NULL");
+        if (options == null)
+            throw new IllegalArgumentException("options are NULL");
         
-        int[][] sudokuArray = getSudokuArray(preprocessedImage, intersectionsArray);
+        loadLibrary();
         
-        extractedArray = sudokuArray;
+        try (MatScope scope = new MatScope()) {
+            long start = options.getMetrics().start();
+            Mat sudoku = scope.track(Imgcodecs.imdecode(scope.track(new MatOfByte(imageBytes)), 0));
+            options.getMetrics().record(PipelineMetrics.Stage.DECODE, start);
+            if (sudoku == null || sudoku.empty())
+                throw new IllegalArgumentException("Could not decode the image");
+            
+            extractedArray = getSudokuArray(extractCells(sudoku, options), options);
+        }
+    }
+
+    // load the OpenCV native library, only the first call in the JVM does it
+    public static void loadLibrary() {
+        if (libraryLoaded)
+            return;
+
+        synchronized (SudokuExtractor.class) {
+            if (!libraryLoaded) {
+                System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+                libraryLoaded = true;
+            }
+        }
+    }
+
+    // the cells of the image (see getCells), e.g. to train or compare a DigitRecognizer
+    // the caller owns the cells and may release them
+    static Mat[] getCells(String filePath) {
+        return getCells(filePath, new ExtractorOptions());
+    }
+
+    // same as getCells(String), with the grid found as the options set (e.g. at a detection size)
+    static Mat[] getCells(String filePath, ExtractorOptions options) {
+        loadLibrary();
+
+        try (MatScope scope = new MatScope()) {
+            Mat sudoku = scope.track(Imgcodecs.imread(filePath, 0));
+            return extractCells(sudoku, options);
+        }
+    }
+
+    // the cells of the grayscale image, with the grid found at the detection size of the options if it is set
+    // the caller owns the cells and may release them
+    static Mat[] extractCells(Mat sudoku, ExtractorOptions options) {
+        if (options.getDetectionSize() > 0)
+            return getCellsScaled(sudoku, locateGridScaled(sudoku, options), options);
+
+        try (MatScope scope = new MatScope()) {
+            long start = options.getMetrics().start();
+            Mat preprocessedImage = scope.mat();
+            preprocess(sudoku, preprocessedImage);
+            options.getMetrics().record(PipelineMetrics.Stage.PREPROCESS, start);
+            return getCells(preprocessedImage, locateGrid(preprocessedImage, options), options);
+        }
+    }
+
+    // the 100 intersection points of the grid lines, sorted row by row
+    static Point[] locateGrid(Mat preprocessedImage, ExtractorOptions options) {
+        PipelineMetrics metrics = options.getMetrics();
+        try (MatScope scope = new MatScope()) {
+            long start = metrics.start();
+            Mat mask = scope.mat();
+            generateMask(preprocessedImage, mask, options.getMaskMethod());
+            start = metrics.record(PipelineMetrics.Stage.MASK, start);
+            
+            debug(options, "processed-image", preprocessedImage);
+            debug(options, "mask", mask);
+            
+            if (options.getGridMethod() == ExtractorOptions.GridMethod.HOUGH) {
+                Point[] intersectionsArray = locateGridHough(preprocessedImage, mask, options, start);
+                if (intersectionsArray != null)
+                    return intersectionsArray;
+                // the time of the Hough transform stays in GRID_LINES
+                metrics.increment(PipelineMetrics.Counter.HOUGH_FALLBACKS);
+            }
+
+            Mat verticalLines = scope.mat(),
+                    horizontalLines = scope.mat();
+            generateGridLines(preprocessedImage, mask, verticalLines, 1, 0, 3, 13);
+            generateGridLines(preprocessedImage, mask, horizontalLines, 0, 1, 13, 3);
+            start = metrics.record(PipelineMetrics.Stage.GRID_LINES, start);
+            
+            debug(options, "thresh-vertical", verticalLines);
+            debug(options, "thresh-horizontal", horizontalLines);
+            
+            Mat intersections = scope.mat();
+            getIntersections(verticalLines, horizontalLines, intersections);
+            
+            debug(options, "intersections", intersections);
+            
+            try {
+                return getIntersectionPoints(intersections);
+            }
+            catch (IllegalStateException e) {
+                metrics.increment(PipelineMetrics.Counter.INTERSECTION_FAILURES);
+                throw e;
+            }
+            finally {
+                metrics.record(PipelineMetrics.Stage.INTERSECTIONS, start);
+            }
+        }
+    }
+
+    // the intersections of the 10 + 10 grid lines found by a probabilistic Hough transform
+    // of the dark pixels inside the mask, computed from the equations of the lines
+    // the segments must be at least a cell long, so the strokes of the digits give none
+    // null if too few lines of an orientation are found (see gridLines), e.g. a grid turned
+    // too far from upright, the caller then uses CONTOURS
+    private static Point[] locateGridHough(Mat preprocessedImage, Mat mask, ExtractorOptions options, long start) {
+        PipelineMetrics metrics = options.getMetrics();
+        try (MatScope scope = new MatScope()) {
+            Rect grid = Imgproc.boundingRect(mask);
+            double cellSize = Math.max(grid.width, grid.height) / 9.0;
+
+            // the lines are dark bands, which keep their segments whatever the contrast of the image
+            // (the edges of a faint line are too weak for Canny, and the paper texture is not)
+            Mat dark = scope.mat(), 
+                    lines = scope.mat();
+            Imgproc.adaptiveThreshold(preprocessedImage, dark, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, 
+                                      Imgproc.THRESH_BINARY_INV, (int) (cellSize / 2) | 1, 10);
+            Core.bitwise_and(dark, mask, dark);
+            // 2 degree steps, the lines are fitted again to the end points of their segments (see fitLine)
+            Imgproc.HoughLinesP(dark, lines, 1, Math.PI / 90, (int) (cellSize / 2), cellSize, cellSize / 4);
+
+            debug(options, "hough-input", dark);
+
+            // x1, y1, x2, y2 of every segment
+            int[] segments = new int[(int) lines.total() * 4];
+            if (segments.length > 0)
+                lines.get(0, 0, segments);
+
+            // the outer edges of the grid across its middle, where the first and last lines are
+            int middleRow = grid.y + grid.height / 2, middleCol = grid.x + grid.width / 2;
+            byte[] row = new byte[mask.cols()], column = new byte[mask.rows()];
+            mask.get(middleRow, 0, row);
+            Mat maskColumn = scope.track(mask.col(middleCol).clone());
+            maskColumn.get(0, 0, column);
+
+            double[][] vertical = gridLines(segments, true, middleRow, extent(row), cellSize),
+                    horizontal = gridLines(segments, false, middleCol, extent(column), cellSize);
+            if (vertical == null || horizontal == null)
+                return null;
+            start = metrics.record(PipelineMetrics.Stage.GRID_LINES, start);
+
+            // x = a y + b and y = c x + d meet at x = (a d + b) / (1 - a c)
+            Point[] intersectionsArray = new Point[100];
+            for (int i = 0; i < 10; i++) {
+                double c = horizontal[i][0], d = horizontal[i][1];
+                for (int j = 0; j < 10; j++) {
+                    double a = vertical[j][0], b = vertical[j][1];
+                    double x = (a * d + b) / (1 - a * c);
+                    intersectionsArray[i * 10 + j] = new Point(x, c * x + d);
+                }
+            }
+            metrics.record(PipelineMetrics.Stage.INTERSECTIONS, start);
+            return intersectionsArray;
+        }
+    }
+
+    // the first and last non-zero pixels of a row or column of the mask
+    private static double[] extent(byte[] pixels) {
+        int first = 0, last = pixels.length - 1;
+        while (first < last && pixels[first] == 0)
+            first++;
+        while (last > first && pixels[last] == 0)
+            last--;
+        return new double[] {first, last};
+    }
+
+    // the 10 grid lines of one orientation found in the Hough segments, sorted by position,
+    // as {a, b} with x = a y + b for vertical lines and y = a x + b for horizontal ones
+    // the segments within a quarter of a cell of the position (at the middle of the grid) with the
+    // most segment length are parts of the same line (e.g. the two sides of a thick line), which is
+    // fitted to their end points, then the same for the remaining segments
+    // line k is the longest one near one spacing after line k - 1, the first at the edge of the grid,
+    // so the stray ones (e.g. text next to the grid) are skipped and the spacing can change across
+    // the grid (perspective), then the missing ones are looked for where a quadratic fitted to the
+    // positions of the lines found puts them
+    // a line that is missing (e.g. too faint) gets the fitted position and the slope of its neighbours
+    // null if fewer than MIN_HOUGH_LINES are found
+    private static double[][] gridLines(int[] segments, boolean vertical, double middle, double[] extent, 
+                                        double cellSize) {
+        // the segments of the orientation as {position at the middle, length, u1, v1, u2, v2},
+        // v along the line (y for vertical lines) and u across it
+        List<double[]> found = new ArrayList<>();
+        for (int k = 0; k < segments.length; k += 4) {
+            double u1 = segments[vertical ? k : k + 1], v1 = segments[vertical ? k + 1 : k], 
+                    u2 = segments[vertical ? k + 2 : k + 3], v2 = segments[vertical ? k + 3 : k + 2];
+            if (Math.abs(u2 - u1) > MAX_HOUGH_SLOPE * Math.abs(v2 - v1))
+                continue;
+            double position = u1 + (u2 - u1) * (middle - v1) / (v2 - v1);
+            found.add(new double[] {position, Math.hypot(u2 - u1, v2 - v1), u1, v1, u2, v2});
+        }
+        found.sort((s1, s2) -> Double.compare(s1[0], s2[0]));
+
+        // the lines as {length of the segments, position at the middle, a, b}
+        List<double[]> lines = new ArrayList<>();
+        while (!found.isEmpty()) {
+            // the window of segments with the most length, by moving its ends along the sorted segments
+            double length = 0, maxLength = -1;
+            int first = 0, maxFirst = 0, maxEnd = 0;
+            for (int end = 0; end < found.size(); end++) {
+                length += found.get(end)[1];
+                while (found.get(end)[0] - found.get(first)[0] >= cellSize / 4)
+                    length -= found.get(first++)[1];
+                if (length > maxLength) {
+                    maxLength = length;
+                    maxFirst = first;
+                    maxEnd = end + 1;
+                }
+            }
+            List<double[]> window = found.subList(maxFirst, maxEnd);
+            lines.add(fitLine(window, middle, cellSize));
+            window.clear();
+        }
+
+        // from the first line on, each line is looked for one spacing after the one before it,
+        // the spacing following the lines found
+        double[][] gridLines = new double[10][];
+        double spacing = (extent[1] - extent[0]) / 9, position = extent[0];
+        int count = 0;
+        for (int k = 0; k < 10; k++) {
+            double expected = k == 0 ? extent[0] : position + spacing;
+            gridLines[k] = longest(lines, expected, spacing / 3);
+            if (gridLines[k] != null) {
+                if (k > 0 && Math.abs(gridLines[k][1] - position - spacing) < spacing / 5)
+                    spacing = gridLines[k][1] - position;
+                position = gridLines[k][1];
+                count++;
+            }
+            else {
+                position = expected;
+            }
+        }
+        if (count < MIN_HOUGH_LINES)
+            return null;
+
+        // the missing lines looked for again where the lines found put them
+        double[] expected = fitPositions(gridLines);
+        for (int k = 0; k < 10; k++) {
+            if (gridLines[k] == null) {
+                gridLines[k] = longest(lines, expected[k], spacing / 4);
+                if (gridLines[k] != null)
+                    count++;
+            }
+        }
+
+        // the slope of a missing line from the slopes of the lines found, by least squares on k
+        double sk = 0, sa = 0, skk = 0, ska = 0;
+        for (int k = 0; k < 10; k++) {
+            if (gridLines[k] != null) {
+                sk += k;
+                sa += gridLines[k][2];
+                skk += k * k;
+                ska += k * gridLines[k][2];
+            }
+        }
+        double slope = (count * ska - sk * sa) / (count * skk - sk * sk), intercept = (sa - slope * sk) / count;
+
+        for (int k = 0; k < 10; k++) {
+            if (gridLines[k] != null) {
+                gridLines[k] = new double[] {gridLines[k][2], gridLines[k][3]};
+            }
+            else {
+                double a = slope * k + intercept;
+                gridLines[k] = new double[] {a, expected[k] - a * middle};
+            }
+        }
+        return gridLines;
+    }
+
+    // the longest of the lines within tolerance of the position, null if there is none
+    private static double[] longest(List<double[]> lines, double position, double tolerance) {
+        double[] longest = null;
+        for (double[] line : lines)
+            if (Math.abs(line[1] - position) < tolerance && (longest == null || line[0] > longest[0]))
+                longest = line;
+        return longest;
+    }
+
+    // the positions at the middle of the 10 lines from a quadratic in k, fitted by least squares
+    // to the lines found (null for the missing ones), which are at least 3
+    private static double[] fitPositions(double[][] lines) {
+        // the normal equations of p = c0 + c1 k + c2 k^2
+        double[][] m = new double[3][4];
+        for (int k = 0; k < lines.length; k++) {
+            if (lines[k] == null)
+                continue;
+            double[] powers = {1, k, k * k};
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++)
+                    m[i][j] += powers[i] * powers[j];
+                m[i][3] += powers[i] * lines[k][1];
+            }
+        }
+
+        // Gaussian elimination, the matrix is positive definite
+        for (int i = 0; i < 3; i++) {
+            for (int r = i + 1; r < 3; r++) {
+                double f = m[r][i] / m[i][i];
+                for (int j = i; j < 4; j++)
+                    m[r][j] -= f * m[i][j];
+            }
+        }
+        double[] c = new double[3];
+        for (int i = 2; i >= 0; i--) {
+            c[i] = m[i][3];
+            for (int j = i + 1; j < 3; j++)
+                c[i] -= m[i][j] * c[j];
+            c[i] /= m[i][i];
+        }
+
+        double[] positions = new double[lines.length];
+        for (int k = 0; k < lines.length; k++)
+            positions[k] = c[0] + c[1] * k + c[2] * k * k;
+        return positions;
+    }
+
+    // u = a v + b by least squares on the end points of the segments, weighted by their length,
+    // fitted again (a few times at most) to the segments that end within a sixth of a cell
+    // of the line, so a stray segment (e.g. a stroke of a digit touching the line) does not tilt it
+    // the segments run along v, so the end points are never all at the same v
+    private static double[] fitLine(List<double[]> segments, double middle, double cellSize) {
+        double[] line = fitLine(segments, middle);
+        List<double[]> fitted = segments;
+        for (int round = 0; round < 3; round++) {
+            List<double[]> inliers = new ArrayList<>();
+            for (double[] s : segments)
+                if (Math.abs(s[2] - line[2] * s[3] - line[3]) < cellSize / 6 
+                        && Math.abs(s[4] - line[2] * s[5] - line[3]) < cellSize / 6)
+                    inliers.add(s);
+            if (inliers.isEmpty() || inliers.equals(fitted))
+                break;
+            line = fitLine(inliers, middle);
+            fitted = inliers;
+        }
+        return line;
+    }
+
+    private static double[] fitLine(List<double[]> segments, double middle) {
+        double sw = 0, sv = 0, su = 0, svv = 0, svu = 0;
+        for (double[] s : segments) {
+            double w = s[1];
+            for (int end = 2; end <= 4; end += 2) {
+                double u = s[end], v = s[end + 1];
+                sw += w;
+                sv += w * v;
+                su += w * u;
+                svv += w * v * v;
+                svu += w * v * u;
+            }
+        }
+        double a = (sw * svu - sv * su) / (sw * svv - sv * sv), 
+                b = (su - a * sv) / sw;
+        return new double[] {sw / 2, a * middle + b, a, b};
+    }
+
+    // write an intermediate image to the debug directory of the options, if there is one
+    private static void debug(ExtractorOptions options, String name, Mat image) {
+        if (options.getDebugDirectory() != null)
+            Imgcodecs.imwrite(Paths.get(options.getDebugDirectory(), name + ".png").toString(), image);
+    }
+
+    // pyramid mode (see ExtractorOptions.setDetectionSize)
+    // the grid is found in a copy of the image scaled to the detection size, where the fixed
+    // kernel sizes of the stages cover the same part of the grid whatever the camera resolution,
+    // and the intersections are refined in small windows of the full resolution image
+    // the full resolution image is read only there, and by getCellsScaled
+    static Point[] locateGridScaled(Mat sudoku, ExtractorOptions options) {
+        int detectionSize = options.getDetectionSize() > 0 ? options.getDetectionSize() 
+                                                            : ExtractorOptions.DEFAULT_DETECTION_SIZE;
+        double scale = (double) detectionSize / Math.max(sudoku.cols(), sudoku.rows());
+
+        PipelineMetrics metrics = options.getMetrics();
+        try (MatScope scope = new MatScope()) {
+            long start = metrics.start();
+            Mat scaled = sudoku;
+            if (scale != 1) {
+                scaled = scope.mat();
+                Imgproc.resize(sudoku, scaled, new Size(), scale, scale, 
+                               scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+            }
+
+            Mat preprocessedImage = scope.mat();
+            preprocess(scaled, preprocessedImage);
+            metrics.record(PipelineMetrics.Stage.PREPROCESS, start);
+
+            Point[] intersectionsArray = locateGrid(preprocessedImage, options);
+            if (scale == 1)
+                return intersectionsArray;
+
+            // from the centres of the scaled pixels to the full resolution ones
+            for (Point p : intersectionsArray) {
+                p.x = (p.x + 0.5) / scale - 0.5;
+                p.y = (p.y + 0.5) / scale - 0.5;
+            }
+
+            // a scaled pixel covers several full resolution ones, refine the position within it
+            // an enlarged image has no more detail than the points already have
+            if (scale < 1) {
+                start = metrics.start();
+                int radius = (int) Math.ceil(REFINE_RADIUS / scale);
+                MatOfPoint2f corners = scope.track(new MatOfPoint2f(intersectionsArray));
+                Imgproc.cornerSubPix(sudoku, corners, new Size(radius, radius), new Size(-1, -1),
+                                     new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER, 20, 0.03));
+                intersectionsArray = corners.toArray();
+                metrics.record(PipelineMetrics.Stage.INTERSECTIONS, start);
+            }
+
+            return intersectionsArray;
+        }
+    }
+
+    // the cells for the intersections found by locateGridScaled
+    // the grid is rectified from the full resolution image, reading only the pixels it samples,
+    // and preprocessed after rectification, at a fixed size whatever the camera resolution
+    // the warp method of the options is not used, the grid is always rectified at once
+    static Mat[] getCellsScaled(Mat sudoku, Point[] intersectionsArray, ExtractorOptions options) {
+        Mat rectified = new Mat();
+        try (MatScope scope = new MatScope()) {
+            // the preprocessing of the grid is part of the warp stage here
+            long start = options.getMetrics().start();
+            Mat grid = scope.mat();
+            rectify(sudoku, intersectionsArray, grid);
+            preprocess(grid, rectified, SharedMats.ELLIPSE_21);
+            options.getMetrics().record(PipelineMetrics.Stage.WARP, start);
+        }
+        return cutCells(rectified, options);
     }
 
     // divide image by result of closing operation
     // then normalize
-    private void preprocess(Mat sudoku, Mat preprocessedImage) {
-        Mat closing = new Mat(),
-                kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(11, 11));
-        
-        Imgproc.morphologyEx(sudoku, closing, Imgproc.MORPH_CLOSE, kernel);
+    static void preprocess(Mat sudoku, Mat preprocessedImage) {
+        preprocess(sudoku, preprocessedImage, SharedMats.ELLIPSE_11);
+    }
 
-        Core.divide(sudoku, closing, preprocessedImage, 1.0, CvType.CV_64F);
+    // the closing with kernel estimates the background, it must be wider than the strokes of the digits
+    private static void preprocess(Mat sudoku, Mat preprocessedImage, Mat kernel) {
+        try (MatScope scope = new MatScope()) {
+            Mat closing = scope.mat();
+            
+            Imgproc.morphologyEx(sudoku, closing, Imgproc.MORPH_CLOSE, kernel);
 
-        Core.normalize(preprocessedImage, preprocessedImage, 0, 255, Core.NORM_MINMAX, CvType.CV_8U);
+            Core.divide(sudoku, closing, preprocessedImage, 1.0, CvType.CV_64F);
+
+            Core.normalize(preprocessedImage, preprocessedImage, 0, 255, Core.NORM_MINMAX, CvType.CV_8U);
+        }
     }
     
     // generate a mask for the sudoku area
-    private void generateMask(Mat preprocessedImage, Mat mask) {
-        Mat blur = new Mat(), 
-                thresh = new Mat();
-        Imgproc.GaussianBlur(preprocessedImage, blur, new Size(11, 11), 0);
-        Imgproc.adaptiveThreshold(blur, thresh, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY, 5, 2);
-        
-        Mat outerFrame = new Mat();
-        getOuterFrame(thresh, outerFrame);
-        
-        Core.bitwise_not(outerFrame, mask);
+    static void generateMask(Mat preprocessedImage, Mat mask) {
+        generateMask(preprocessedImage, mask, ExtractorOptions.MaskMethod.CONNECTED_COMPONENTS);
+    }
 
-        Imgproc.floodFill(outerFrame, new Mat(), new Point(0, 0), new Scalar(0));
+    static void generateMask(Mat preprocessedImage, Mat mask, ExtractorOptions.MaskMethod method) {
+        try (MatScope scope = new MatScope()) {
+            Mat blur = scope.mat(), 
+                    thresh = scope.mat();
+            Imgproc.GaussianBlur(preprocessedImage, blur, new Size(11, 11), 0);
+            Imgproc.adaptiveThreshold(blur, thresh, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY, 5, 2);
+            
+            Mat outerFrame = scope.mat();
+            if (method == ExtractorOptions.MaskMethod.FLOOD_FILL)
+                getOuterFrame(thresh, outerFrame);
+            else
+                getOuterFrameLabeled(thresh, outerFrame);
+            
+            Core.bitwise_not(outerFrame, mask);
+
+            Imgproc.floodFill(outerFrame, scope.mat(), new Point(0, 0), new Scalar(0));
 
-        Core.bitwise_or(mask, outerFrame, mask);
+            Core.bitwise_or(mask, outerFrame, mask);
+        }
     }
     
+    // same as getOuterFrame, labeling the black areas in one native call
+    // instead of flood filling them pixel by pixel
+    // the areas are 4-connected, like the ones filled by floodFill
+    private static void getOuterFrameLabeled(Mat thresh, Mat outerFrame) {
+        try (MatScope scope = new MatScope()) {
+            getOuterFrameLabeled(thresh, outerFrame, scope);
+        }
+    }
+
+    private static void getOuterFrameLabeled(Mat thresh, Mat outerFrame, MatScope scope) {
+        Mat black = scope.mat(), labels = scope.mat(), stats = scope.mat(), centroids = scope.mat();
+        Imgproc.threshold(thresh, black, 127, 255, Imgproc.THRESH_BINARY_INV);
+        int count = Imgproc.connectedComponentsWithStats(black, labels, stats, centroids, 4, CvType.CV_32S);
+
+        // label 0 is the white background
+        int[] stat = new int[count * stats.cols()];
+        stats.get(0, 0, stat);
+        int maxLabel = -1, maxArea = -1;
+        for (int label = 1; label < count; label++) {
+            int area = stat[label * stats.cols() + Imgproc.CC_STAT_AREA];
+            if (area > maxArea) {
+                maxLabel = label;
+                maxArea = area;
+            }
+        }
+        if (maxLabel == -1)
+            throw new IllegalStateException("No grid detected in the image");
+
+        // the max area black, everything else white
+        Core.compare(labels, new Scalar(maxLabel), outerFrame, Core.CMP_NE);
+    }
+
     // get the outer frame of the grid
-    private void getOuterFrame(Mat thresh, Mat outerFrame) {
+    private static void getOuterFrame(Mat thresh, Mat outerFrame) {
         Point maxPoint = getMaxPoint(thresh);
-        Mat temp = thresh.clone();
+        Mat temp = thresh.clone(), 
+                noMask = new Mat();
 
         // fill the max area grey
-        Imgproc.floodFill(temp, new Mat(), maxPoint, new Scalar(150));
+        Imgproc.floodFill(temp, noMask, maxPoint, new Scalar(150));
         
         // white out the remaining black areas
         for (int y = 0; y < temp.size().height; y++) {
             for (int x = 0; x < temp.size().width; x++) {
                 if (temp.get(y, x)[0] < 128) {
-                    Imgproc.floodFill(temp, new Mat(), new Point(x, y), new Scalar(255));
+                    Imgproc.floodFill(temp, noMask, new Point(x, y), new Scalar(255));
                 }
             }
         }
         
         // fill the max area black
-        Imgproc.floodFill(temp, new Mat(), maxPoint, new Scalar(0));
+        Imgproc.floodFill(temp, noMask, maxPoint, new Scalar(0));
         
         temp.copyTo(outerFrame);
+        temp.release();
     }
     
     // get a point in the connected component with max area
-    private Point getMaxPoint(Mat thresh) {
+    private static Point getMaxPoint(Mat thresh) {
         int maxArea = -1;
         Point maxPoint = null;
-        Mat temp = thresh.clone();
+        Mat temp = thresh.clone(), 
+                noMask = new Mat();
 
         for (int y = 0; y < temp.rows(); y++) {
             for (int x = 0; x < temp.cols(); x++) {
                 if (temp.get(y, x)[0] < 128) {
-                    int area = Imgproc.floodFill(temp, new Mat(), 
+                    int area = Imgproc.floodFill(temp, noMask, 
                                                     new Point(x, y), new Scalar(130));
                     if (area > maxArea) {
                         maxPoint = new Point(x, y);
@@ -130,13 +650,21 @@ public class SudokuExtractor {
             }
         }
         
+        temp.release();
         return maxPoint;
     }
     
     // generate the grid lines using sobel operator
-    private void generateGridLines(Mat preprocessedImage, Mat mask, Mat dst, int degreeX, int degreeY, int kerX, int kerY) {
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(kerX, kerY));
-        Mat diff = new Mat();
+    static void generateGridLines(Mat preprocessedImage, Mat mask, Mat dst, int degreeX, int degreeY, int kerX, int kerY) {
+        try (MatScope scope = new MatScope()) {
+            generateGridLines(preprocessedImage, mask, dst, degreeX, degreeY, kerX, kerY, scope);
+        }
+    }
+
+    private static void generateGridLines(Mat preprocessedImage, Mat mask, Mat dst, int degreeX, int degreeY, 
+                                          int kerX, int kerY, MatScope scope) {
+        Mat kernel = scope.track(Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(kerX, kerY)));
+        Mat diff = scope.mat();
         Imgproc.Sobel(preprocessedImage, diff, CvType.CV_16S, degreeX, degreeY);
         Core.convertScaleAbs(diff, diff);
         Core.normalize(diff, diff, 0, 255, Core.NORM_MINMAX, CvType.CV_8U);
@@ -149,7 +677,7 @@ public class SudokuExtractor {
         // else
         //     Imgcodecs.imwrite("images/sobel-dy.png", diff);
         
-        Mat thresh = new Mat();
+        Mat thresh = scope.mat();
         Imgproc.threshold(diff, thresh, 0, 255, Imgproc.THRESH_BINARY+Imgproc.THRESH_OTSU);
         Imgproc.morphologyEx(thresh, thresh, Imgproc.MORPH_OPEN, kernel);
         
@@ -159,7 +687,8 @@ public class SudokuExtractor {
         //     Imgcodecs.imwrite("images/actual-thresh-dy.png", thresh);
         
         List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(thresh, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        Imgproc.findContours(thresh, contours, scope.mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        scope.trackAll(contours);
 
         // sort contours by height or width
         if (degreeX == 1) // vertical lines, sort by height
@@ -174,29 +703,30 @@ public class SudokuExtractor {
                 Imgproc.drawContours(thresh, contours, i, new Scalar(0), -1);
         }
 
-        kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(5, 5));
-        Imgproc.dilate(thresh, thresh, kernel);
+        Imgproc.dilate(thresh, thresh, SharedMats.RECT_5);
         
         thresh.copyTo(dst);
     }
     
     // get intersections by AND-ing with grid lines
-    private void getIntersections(Mat verticalLines, Mat horizontalLines, Mat intersections) {
+    static void getIntersections(Mat verticalLines, Mat horizontalLines, Mat intersections) {
         Core.bitwise_and(verticalLines, horizontalLines, intersections);
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Imgproc.morphologyEx(intersections, intersections, Imgproc.MORPH_CLOSE, kernel);
+        Imgproc.morphologyEx(intersections, intersections, Imgproc.MORPH_CLOSE, SharedMats.ELLIPSE_5);
     }
     
     // get the intersection points
-    private Point[] getIntersectionPoints(Mat intersections) {
+    static Point[] getIntersectionPoints(Mat intersections) {
         List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(intersections, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
         List<Point> intersectionPoints = new ArrayList<>();
-        for (MatOfPoint contour : contours) {
-            Moments m = Imgproc.moments(contour);
-            double x = m.m10 / m.m00, 
-                    y = m.m01 / m.m00;
-            intersectionPoints.add(new Point(x, y));
+        try (MatScope scope = new MatScope()) {
+            Imgproc.findContours(intersections, contours, scope.mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+            scope.trackAll(contours);
+            for (MatOfPoint contour : contours) {
+                Moments m = Imgproc.moments(contour);
+                double x = m.m10 / m.m00, 
+                        y = m.m01 / m.m00;
+                intersectionPoints.add(new Point(x, y));
+            }
         }
 
         Point[] intersectionPointsArray = intersectionPoints.toArray(new Point[0]);
@@ -222,66 +752,269 @@ public class SudokuExtractor {
     }
     
     // create the 2D sudoku matrix
-    private int[][] getSudokuArray(Mat preprocessedImage, Point[] intersectionsArray) {
-        int finalSize = 100; // final size of perspective transform square box
-        
-        List<Point> finalCorners = new ArrayList<>();
-        finalCorners.add(new Point(0, 0));
-        finalCorners.add(new Point(finalSize, 0));
-        finalCorners.add(new Point(0, finalSize));
-        finalCorners.add(new Point(finalSize, finalSize));
-        Mat finalCornersMat = Converters.vector_Point2f_to_Mat(finalCorners);
+    static int[][] getSudokuArray(Mat preprocessedImage, Point[] intersectionsArray) {
+        return getSudokuArray(preprocessedImage, intersectionsArray, new ExtractorOptions());
+    }
+
+    static int[][] getSudokuArray(Mat preprocessedImage, Point[] intersectionsArray, ExtractorOptions options) {
+        return getSudokuArray(getCells(preprocessedImage, intersectionsArray, options), options);
+    }
+
+    // the digits of the cells (see recognize), releasing the cells
+    private static int[][] getSudokuArray(Mat[] cells, ExtractorOptions options) {
+        try {
+            return recognize(cells, options);
+        }
+        finally {
+            for (Mat cell : cells)
+                if (cell != null)
+                    cell.release();
+        }
+    }
+
+    // the digits of the non-blank cells, 0 for the null (blank) ones
+    static int[][] recognize(Mat[] cells, ExtractorOptions options) {
+        PipelineMetrics metrics = options.getMetrics();
+        long start = metrics.start();
+        try {
+            return recognize(cells, options.getRecognizer(), options);
+        }
+        finally {
+            metrics.record(PipelineMetrics.Stage.OCR, start);
+        }
+    }
+
+    private static int[][] recognize(Mat[] cells, DigitRecognizer recognizer, ExtractorOptions options) {
+        if (options.isValidated())
+            return resolve(cells, recognizer, options);
 
         int[][] sudokuMatrix = new int[9][9];
+
+        if (!options.isBatchOcr()) {
+            // run OCR, cell by cell
+            IntStream indices = IntStream.range(0, 81).filter(index -> cells[index] != null);
+            if (options.isParallel())
+                indices = indices.parallel();
+            indices.forEach(index -> sudokuMatrix[index / 9][index % 9] = recognizer.recognize(cells[index]));
+            options.getMetrics().add(PipelineMetrics.Counter.CELLS_RECOGNIZED, 
+                                     Arrays.stream(cells).filter(cell -> cell != null).count());
+            return sudokuMatrix;
+        }
+
+        // non-blank cells and their row-major indices, for batched recognition
+        List<Mat> digitCells = new ArrayList<>();
+        List<Integer> digitIndices = new ArrayList<>();
+        for (int index = 0; index < 81; index++) {
+            if (cells[index] != null) {
+                digitCells.add(cells[index]);
+                digitIndices.add(index);
+            }
+        }
+
+        // recognize all the non-blank cells with one call
+        int[] digits = recognizer.recognize(digitCells);
+        options.getMetrics().add(PipelineMetrics.Counter.CELLS_RECOGNIZED, digitCells.size());
+        for (int k = 0; k < digits.length; k++) {
+            int index = digitIndices.get(k);
+            sudokuMatrix[index / 9][index % 9] = digits[k];
+        }
         
+        return sudokuMatrix;
+    }
+
+    // the digits read with their confidences, and checked by a ConsistencyResolver
+    // a batch of cells is read together, so a suspect cell is read again alone
+    private static int[][] resolve(Mat[] cells, DigitRecognizer recognizer, ExtractorOptions options) {
+        DigitReading[] readings = new DigitReading[81];
+        long recognized = Arrays.stream(cells).filter(cell -> cell != null).count();
+
+        if (options.isBatchOcr()) {
+            List<Mat> digitCells = new ArrayList<>();
+            List<Integer> digitIndices = new ArrayList<>();
+            for (int index = 0; index < 81; index++) {
+                if (cells[index] != null) {
+                    digitCells.add(cells[index]);
+                    digitIndices.add(index);
+                }
+            }
+
+            DigitReading[] batch = recognizer.read(digitCells);
+            for (int k = 0; k < batch.length; k++)
+                readings[digitIndices.get(k)] = batch[k];
+        }
+        else {
+            IntStream indices = IntStream.range(0, 81).filter(index -> cells[index] != null);
+            if (options.isParallel())
+                indices = indices.parallel();
+            indices.forEach(index -> readings[index] = recognizer.read(cells[index]));
+        }
+        options.getMetrics().add(PipelineMetrics.Counter.CELLS_RECOGNIZED, recognized);
+
+        return new ConsistencyResolver()
+                .resolve(readings, options.isBatchOcr() ? index -> recognizer.read(cells[index]) : null, 
+                         options.getMetrics());
+    }
+
+    // the thresholded 70 x 70 crops of the cells in row-major order, null for blank cells
+    // the caller owns the cells and may release them
+    static Mat[] getCells(Mat preprocessedImage, Point[] intersectionsArray) {
+        return getCells(preprocessedImage, intersectionsArray, new ExtractorOptions());
+    }
+
+    static Mat[] getCells(Mat preprocessedImage, Point[] intersectionsArray, ExtractorOptions options) {
+        if (options.getWarpMethod() == ExtractorOptions.WarpMethod.PER_CELL)
+            return warpCells(preprocessedImage, intersectionsArray, options);
+
+        long start = options.getMetrics().start();
+        Mat rectified = new Mat();
+        rectify(preprocessedImage, intersectionsArray, rectified);
+        options.getMetrics().record(PipelineMetrics.Stage.WARP, start);
+        return cutCells(rectified, options);
+    }
+
+    // the non-blank cells of a rectified grid, as views of it
+    // rectified is released, the cells keep its pixels alive
+    private static Mat[] cutCells(Mat rectified, ExtractorOptions options) {
+        long start = options.getMetrics().start();
+        Mat[] cells = new Mat[81];
+        IntStream indices = IntStream.range(0, 81);
+        if (options.isParallel())
+            indices = indices.parallel();
+        indices.forEach(index -> {
+            // crop to remove black borders, a view into the rectified grid
+            int x = (index % 9) * CELL_SIZE + CELL_BORDER, y = (index / 9) * CELL_SIZE + CELL_BORDER;
+            Mat cell = rectified.submat(new Rect(x, y, CELL_CROP, CELL_CROP));
+
+            // the cells do not overlap, so they can be thresholded in place at the same time
+            Imgproc.threshold(cell, cell, 200, 255, Imgproc.THRESH_BINARY);
+            if (!isBlank(cell))
+                cells[index] = cell;
+            else
+                cell.release();
+        });
+
+        options.getMetrics().record(PipelineMetrics.Stage.BLANK_FILTER, start);
+        options.getMetrics().add(PipelineMetrics.Counter.CELLS_BLANK, 
+                                 Arrays.stream(cells).filter(cell -> cell == null).count());
+
+        // the cells are thresholded in place, the grid lines between them are not
+        debug(options, "rectified", rectified);
+
+        // the pixels stay alive until the non-blank cells are released too
+        rectified.release();
+        return cells;
+    }
+
+    // warp the grid to a square of 9 x 9 cells of CELL_SIZE, in one remap call
+    // every cell gets the perspective transform of its own 4 intersection points,
+    // the same transform warpCells uses, so the local distortion is still corrected
+    static void rectify(Mat preprocessedImage, Point[] intersectionsArray, Mat rectified) {
+        int size = 9 * CELL_SIZE;
+        Buffers buffers = BUFFERS.get();
+        float[] mapX = buffers.mapXData, mapY = buffers.mapYData;
+
         for (int i = 0; i < 9; i++) {
             for (int j = 0; j < 9; j++) {
                 int index = i * 10 + j;
-                
-                List<Point> actualCorners = new ArrayList<>();
-                actualCorners.add(intersectionsArray[index]);
-                actualCorners.add(intersectionsArray[index + 1]);
-                actualCorners.add(intersectionsArray[index + 10]);
-                actualCorners.add(intersectionsArray[index + 11]);
-                Mat actualCornersMat = Converters.vector_Point2f_to_Mat(actualCorners);
+                Point p0 = intersectionsArray[index], p1 = intersectionsArray[index + 1],
+                        p2 = intersectionsArray[index + 11], p3 = intersectionsArray[index + 10];
 
-                // the perspective transform
-                Mat trans = Imgproc.getPerspectiveTransform(actualCornersMat, finalCornersMat);
+                // projective map of the unit square to the cell, (0, 0), (1, 0), (1, 1), (0, 1)
+                // to p0, p1, p2, p3 (Heckbert, Fundamentals of Texture Mapping, 1989)
+                double sx = p0.x - p1.x + p2.x - p3.x, sy = p0.y - p1.y + p2.y - p3.y;
+                double dx1 = p1.x - p2.x, dx2 = p3.x - p2.x, dy1 = p1.y - p2.y, dy2 = p3.y - p2.y;
+                double det = dx1 * dy2 - dx2 * dy1;
+                double g = (sx * dy2 - dx2 * sy) / det, h = (dx1 * sy - sx * dy1) / det;
+                double a = p1.x - p0.x + g * p1.x, b = p3.x - p0.x + h * p3.x, c = p0.x;
+                double d = p1.y - p0.y + g * p1.y, e = p3.y - p0.y + h * p3.y, f = p0.y;
 
-                Mat singleBox = new Mat();
-                
-                // perspective transform to a 100 x 100 square
-                Imgproc.warpPerspective(preprocessedImage, singleBox, trans, new Size(finalSize, finalSize));
-                
-                // Imgcodecs.imwrite("images/single-box.png", singleBox);
-                
-                Imgproc.threshold(singleBox, singleBox, 200, 255, Imgproc.THRESH_BINARY);
-                                
-                // crop to remove black borders
-                Mat singleBoxCropped = new Mat(singleBox, new Range(14, 84), new Range(14, 84));
-                
-                // basic blank filter
-                // % white > 95 means blank cell
-                int white = Core.countNonZero(singleBoxCropped);
-                double percentageWhite = white / 4900.0 * 100;
-                if (percentageWhite > 95) {
-                    continue;
+                for (int y = 0; y < CELL_SIZE; y++) {
+                    double v = (double) y / CELL_SIZE;
+                    int row = (i * CELL_SIZE + y) * size + j * CELL_SIZE;
+                    for (int x = 0; x < CELL_SIZE; x++) {
+                        double u = (double) x / CELL_SIZE, w = g * u + h * v + 1;
+                        mapX[row + x] = (float) ((a * u + b * v + c) / w);
+                        mapY[row + x] = (float) ((d * u + e * v + f) / w);
+                    }
                 }
+            }
+        }
+
+        // create does nothing when the buffers already have the size and type
+        buffers.mapX.create(size, size, CvType.CV_32FC1);
+        buffers.mapY.create(size, size, CvType.CV_32FC1);
+        buffers.mapX.put(0, 0, mapX);
+        buffers.mapY.put(0, 0, mapY);
+        Imgproc.remap(preprocessedImage, rectified, buffers.mapX, buffers.mapY, Imgproc.INTER_LINEAR);
+    }
+
+    // basic blank filter
+    // % white > 95 means blank cell
+    private static boolean isBlank(Mat cell) {
+        int white = Core.countNonZero(cell);
+        double percentageWhite = white / (double) cell.total() * 100;
+        return percentageWhite > 95;
+    }
+
+    // one perspective transform per cell
+    // every cell is warped into the same buffer, and only the non-blank crops are copied out
+    // the warps and the blank filter take turns, so their times are summed over the cells
+    private static Mat[] warpCells(Mat preprocessedImage, Point[] intersectionsArray, ExtractorOptions options) {
+        Mat singleBox = BUFFERS.get().singleBox;
+        PipelineMetrics metrics = options.getMetrics();
+        long warpNanos = 0, blankNanos = 0;
+
+        Mat[] cells = new Mat[81];
+        
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                int index = i * 10 + j;
                 
-                // System.out.println(percentageWhite);
-                // System.out.println(intersectionsArray[index]);
-                // System.out.println(intersectionsArray[index+1]);
-                // System.out.println(intersectionsArray[index+10]);
-                // System.out.println(intersectionsArray[index+11]);
-                
-                Imgcodecs.imwrite("images/digit.png", singleBoxCropped);
-                
-                // run OCR
-                sudokuMatrix[i][j] = SingleDigitOCR.getDigit("images/digit.png");
+                try (MatScope scope = new MatScope()) {
+                    long start = metrics.start();
+                    List<Point> actualCorners = new ArrayList<>();
+                    actualCorners.add(intersectionsArray[index]);
+                    actualCorners.add(intersectionsArray[index + 1]);
+                    actualCorners.add(intersectionsArray[index + 10]);
+                    actualCorners.add(intersectionsArray[index + 11]);
+                    Mat actualCornersMat = scope.track(Converters.vector_Point2f_to_Mat(actualCorners));
+
+                    // the perspective transform
+                    Mat trans = scope.track(Imgproc.getPerspectiveTransform(actualCornersMat, SharedMats.FINAL_CORNERS));
+
+                    // perspective transform to a 100 x 100 square
+                    Imgproc.warpPerspective(preprocessedImage, singleBox, trans, new Size(CELL_SIZE, CELL_SIZE));
+                    long warped = metrics.start();
+                    warpNanos += warped - start;
+                    
+                    // Imgcodecs.imwrite("images/single-box.png", singleBox);
+                    
+                    Imgproc.threshold(singleBox, singleBox, 200, 255, Imgproc.THRESH_BINARY);
+                                    
+                    // crop to remove black borders
+                    Mat singleBoxCropped = scope.track(new Mat(singleBox, new Range(CELL_BORDER, CELL_BORDER + CELL_CROP), 
+                                                               new Range(CELL_BORDER, CELL_BORDER + CELL_CROP)));
+                    
+                    boolean blank = isBlank(singleBoxCropped);
+                    blankNanos += metrics.start() - warped;
+                    if (blank) {
+                        metrics.increment(PipelineMetrics.Counter.CELLS_BLANK);
+                        continue;
+                    }
+                    
+                    // System.out.println(intersectionsArray[index]);
+                    // System.out.println(intersectionsArray[index+1]);
+                    // System.out.println(intersectionsArray[index+10]);
+                    // System.out.println(intersectionsArray[index+11]);
+                    
+                    cells[i * 9 + j] = singleBoxCropped.clone();
+                }
             }
         }
         
-        return sudokuMatrix;
+        metrics.recordNanos(PipelineMetrics.Stage.WARP, warpNanos);
+        metrics.recordNanos(PipelineMetrics.Stage.BLANK_FILTER, blankNanos);
+        return cells;
     }
     
     public int[][] getExtractedArray() {
@@ -0,0 +1,181 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.Random;
+
+// generates puzzles with a unique solution
+// a full grid is built by filling the diagonal grids at random and solving the rest,
+// then clues are removed in random order as long as the solution stays unique
+// the board is edited in place on one IterativeSudokuSolver, so a removal is checked
+// without resetting the solver: the removed cell is set to each of its other candidates
+// and the removal is kept if none of them can be completed, after a quick check
+// whether the other clues already force the digit as a single
+// usage: SudokuGenerator [count] [box size] [seed]
+// prints one puzzle per line, each after a '#' comment with its givens and difficulty,
+// so the output can be read by SolverBenchmark, BatchSolver and PuzzleStoreWriter
+public class SudokuGenerator {
+
+    private static final int EMPTY = 0;
+
+    // a generated puzzle, its solution and how hard it was to solve
+    public static class Puzzle {
+
+        private final int[][] board, solution;
+        private final int givens;
+        private final long difficulty;
+
+        private Puzzle(int[][] board, int[][] solution, int givens, long difficulty) {
+            this.board = board;
+            this.solution = solution;
+            this.givens = givens;
+            this.difficulty = difficulty;
+        }
+
+        public int[][] getBoard() {
+            return board;
+        }
+
+        public int[][] getSolution() {
+            return solution;
+        }
+
+        public int getGivens() {
+            return givens;
+        }
+
+        // search nodes needed to solve the puzzle and prove the solution unique
+        // 1 means the puzzle is solved by singles alone
+        public long getDifficulty() {
+            return difficulty;
+        }
+
+        public String toString() {
+            return PuzzleFormat.format(board);
+        }
+
+    }
+
+    private final int boxSize, length, cells;
+    private final Random random;
+    private final IterativeSudokuSolver solver;
+    private final int[] order, digits;
+
+    // throws IllegalArgumentException if boxSize is not from 2 to 7
+    public SudokuGenerator(int boxSize, Random random) {
+        this.boxSize = boxSize;
+        this.random = random;
+        solver = new IterativeSudokuSolver(boxSize);
+        length = boxSize * boxSize;
+        cells = length * length;
+        order = new int[cells];
+        digits = new int[length];
+    }
+
+    public SudokuGenerator(int boxSize, long seed) {
+        this(boxSize, new Random(seed));
+    }
+
+    public SudokuGenerator(int boxSize) {
+        this(boxSize, new Random());
+    }
+
+    public int getBoxSize() {
+        return boxSize;
+    }
+
+    public Puzzle generate() {
+        int[][] solution = fullGrid();
+
+        for (int cell = 0; cell < cells; cell++)
+            order[cell] = cell;
+        shuffle(order);
+
+        int givens = cells;
+        for (int cell : order) {
+            int row = cell / length, col = cell % length, digit = solution[row][col];
+            solver.set(row, col, EMPTY);
+            if (!unique(row, col, digit)) {
+                solver.set(row, col, digit);
+                continue;
+            }
+            givens--;
+        }
+
+        int[][] board = solver.getBoard();
+        solver.countSolutions(2);
+        return new Puzzle(board, solution, givens, solver.getNodeCount());
+    }
+
+    // true if digit is the only value of the empty cell that leads to a solution
+    // the other clues on the board are known to have a single solution with digit in the cell
+    private boolean unique(int row, int col, int digit) {
+        return forced(row, col, digit) || solver.countSolutions(row, col, digit, 1) == 0;
+    }
+
+    // true if the other clues force digit into the empty cell as a naked or hidden single,
+    // which is much cheaper to check than searching each of the other candidates
+    private boolean forced(int row, int col, int digit) {
+        long bit = 1L << digit;
+        if (solver.getCandidates(row, col) == bit)
+            return true;
+
+        boolean rowFree = true, colFree = true, gridFree = true;
+        int top = row - row % boxSize, left = col - col % boxSize;
+        for (int k = 0; k < length; k++) {
+            if (k != col && solver.get(row, k) == EMPTY && (solver.getCandidates(row, k) & bit) != 0)
+                rowFree = false;
+            if (k != row && solver.get(k, col) == EMPTY && (solver.getCandidates(k, col) & bit) != 0)
+                colFree = false;
+            int i = top + k / boxSize, j = left + k % boxSize;
+            if ((i != row || j != col) && solver.get(i, j) == EMPTY && (solver.getCandidates(i, j) & bit) != 0)
+                gridFree = false;
+        }
+        return rowFree || colFree || gridFree;
+    }
+
+    // a random full grid, also left as the givens of the solver
+    private int[][] fullGrid() {
+        solver.reset(new int[length][length]);
+
+        // the diagonal grids do not share a row or column, so any filling is consistent
+        for (int grid = 0; grid < boxSize; grid++) {
+            for (int k = 0; k < length; k++)
+                digits[k] = k + 1;
+            shuffle(digits);
+            for (int k = 0; k < length; k++)
+                solver.set(grid * boxSize + k / boxSize, grid * boxSize + k % boxSize, digits[k]);
+        }
+
+        if (!solver.solve())
+            throw new IllegalStateException("Full grid not found");
+        int[][] solution = solver.getBoard();
+        solver.reset(solution);
+        return solution;
+    }
+
+    private void shuffle(int[] values) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = values[i];
+            values[i] = values[j];
+            values[j] = temp;
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int boxSize = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        SudokuGenerator generator = args.length > 2 ? new SudokuGenerator(boxSize, Long.parseLong(args[2]))
+                                                    : new SudokuGenerator(boxSize);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            Puzzle puzzle = generator.generate();
+            sb.setLength(0);
+            sb.append("# givens ").append(puzzle.getGivens())
+              .append(", difficulty ").append(puzzle.getDifficulty())
+              .append(System.lineSeparator()).append(puzzle);
+            System.out.println(sb);
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+package io.github.pmcarpan.sudoku;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// resident extraction and solving service on the JDK's HTTP server, so the native libraries,
+// the Tesseract engines and the JIT are initialized once instead of on every run
+// POST /extract   the bytes of an image (any format OpenCV reads), returns the puzzle and its solution
+// POST /solve     a puzzle line (see PuzzleFormat), returns the puzzle and its solution
+// GET  /health    200 once the server is up
+// GET  /ready     200 once the warm-up is done, 503 before (and /extract and /solve too)
+// GET  /metrics   the stage histograms of the extractions (see PipelineMetrics.writeHistograms)
+// GET  /cache     the hits, misses and evictions of the result cache (see ResultCache)
+// the responses are JSON, e.g. {"puzzle":"...6.47..","solution":"583694721..."}
+// an extracted puzzle the validation could not make consistent (see ExtractorOptions.setValidated)
+// is returned as read, with "unresolved":true and the solution NOT SOLVABLE
+// or {"error":"Detected 96 points. Required 100."} with status 400 (bad input) or 422 (no sudoku found)
+// the requests run on virtual threads when the JVM has them, otherwise on a cached thread pool
+// resubmitted images and equivalent puzzles are answered from a ResultCache, sized with
+// -Dsudoku.cache.images (default 256), -Dsudoku.cache.puzzles (default 4096) and
+// -Dsudoku.cache.ttl in seconds (default 600), -Dsudoku.cache=false turns it off
+// usage: SudokuService [port] [engine]
+public class SudokuService {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    // the sample images extracted at startup, and how many times
+    private static final String[] WARM_UP_IMAGES = {"images/sudokubig.jpg", "images/sudoku3.jpg", "images/sudoku89.jpg"};
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private static final int MAX_BODY_BYTES = 16 << 20;
+
+    private static final int DEFAULT_CACHED_IMAGES = 256, DEFAULT_CACHED_PUZZLES = 4096;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 600;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ExtractorOptions options;
+    private final SolverEngine engine;
+    // null if results are not cached
+    private final ResultCache cache;
+
+    // null until the warm-up is done, then the outcome reported by /ready
+    private volatile String readiness;
+    private volatile boolean ready;
+
+    // a local service, listening on the loopback address only
+    public SudokuService(int port, ExtractorOptions options, SolverEngine engine) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), options, engine);
+    }
+
+    // with the cache configured by the system properties (see defaultCache)
+    public SudokuService(InetSocketAddress address, ExtractorOptions options, SolverEngine engine) throws IOException {
+        this(address, options, engine, defaultCache());
+    }
+
+    // cache may be null, to extract and solve every request
+    // throws IllegalArgumentException if address, options or engine is null
+    public SudokuService(InetSocketAddress address, ExtractorOptions options, SolverEngine engine,
+                         ResultCache cache) throws IOException {
+        if (address == null || options == null || engine == null)
+            throw new IllegalArgumentException("Address, options and engine must not be null");
+
+        this.options = options;
+        this.engine = engine;
+        this.cache = cache;
+
+        executor = newRequestExecutor();
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/extract", work(this::extract, options.isValidated()));
+        server.createContext("/solve", work(this::parse, false));
+        server.createContext("/health", exchange -> respond(exchange, 200, "{\"status\":\"up\"}"));
+        server.createContext("/ready", exchange -> {
+            String status = readiness;
+            respond(exchange, ready ? 200 : 503, status == null ? "{\"status\":\"warming up\"}" : status);
+        });
+        server.createContext("/metrics", exchange -> {
+            StringBuilder sb = new StringBuilder();
+            options.getMetrics().writeHistograms(sb);
+            respond(exchange, 200, "text/csv", sb.toString());
+        });
+        server.createContext("/cache", exchange ->
+            respond(exchange, 200, cache == null ? "{\"enabled\":false}" : cache.toJson()));
+    }
+
+    // null if -Dsudoku.cache=false
+    // throws IllegalArgumentException if a size or the time to live is not positive
+    private static ResultCache defaultCache() {
+        if ("false".equalsIgnoreCase(System.getProperty("sudoku.cache")))
+            return null;
+
+        return new ResultCache(Integer.getInteger("sudoku.cache.images", DEFAULT_CACHED_IMAGES),
+                               Integer.getInteger("sudoku.cache.puzzles", DEFAULT_CACHED_PUZZLES),
+                               Long.getLong("sudoku.cache.ttl", DEFAULT_CACHE_TTL_SECONDS), TimeUnit.SECONDS);
+    }
+
+    // one virtual thread per task (Java 21 and later), found by reflection so the
+    // service still builds and runs on older JVMs, with a cached pool of platform threads
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "sudoku-service");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // accept requests, and initialize and warm up in the background
+    public void start() {
+        server.start();
+
+        Thread warmUp = new Thread(this::warmUp, "sudoku-service-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // load the native library and create the recognizer, whose first Tesseract engines are
+    // initialized by then and stay in its pools (see TesseractPool), then extract and solve
+    // the sample images, which compiles the hot paths
+    // the pools add engines when requests come in at the same time
+    // a sample image that fails is reported, but does not keep the service from getting ready
+    private void warmUp() {
+        long start = System.nanoTime();
+        DigitRecognizer recognizer;
+        try {
+            SudokuExtractor.loadLibrary();
+            recognizer = options.getRecognizer();
+        }
+        catch (RuntimeException | LinkageError e) {
+            readiness = statusJson("failed", "Initialization failed: " + e);
+            System.out.println("Initialization failed: " + e);
+            return;
+        }
+
+        int extracted = 0, failed = 0;
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            for (String image : WARM_UP_IMAGES) {
+                if (!new File(image).isFile())
+                    continue;
+                try {
+                    int[][] puzzle = new SudokuExtractor(image, options).getExtractedArray();
+                    engine.create(puzzle).solve();
+                    extracted++;
+                }
+                catch (RuntimeException e) {
+                    failed++;
+                    if (round == 0)
+                        System.out.println("Warm-up failed on " + image + ": " + e.getMessage());
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String engines = "";
+        if (recognizer instanceof SingleDigitOCR) {
+            SingleDigitOCR ocr = (SingleDigitOCR) recognizer;
+            engines = String.format(", %d + %d Tesseract engines ready (up to %d + %d)",
+                                    ocr.getCharPool().getCreatedCount(), ocr.getLinePool().getCreatedCount(),
+                                    ocr.getCharPool().getSize(), ocr.getLinePool().getSize());
+        }
+        readiness = statusJson("ready", String.format("Warmed up with %d extractions (%d failed) in %.3f s%s",
+                                                      extracted, failed, seconds, engines));
+        ready = true;
+        System.out.println("Ready after " + String.format("%.3f", seconds) + " s");
+    }
+
+    private static String statusJson(String status, String message) {
+        StringBuilder sb = new StringBuilder("{\"status\":");
+        BatchExtractor.appendJsonString(status, sb);
+        sb.append(",\"message\":");
+        BatchExtractor.appendJsonString(message, sb);
+        return sb.append('}').toString();
+    }
+
+    // the body of a request, turned into the puzzle it asks for
+    private interface Work {
+        int[][] puzzle(byte[] body);
+    }
+
+    // a POST handler that answers 503 before the warm-up is done
+    // validated if the puzzles come from validated extractions, so the ones without a solution are unresolved
+    private HttpHandler work(Work work, boolean validated) {
+        return exchange -> {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    respondError(exchange, 405, "Use POST");
+                    return;
+                }
+                if (!ready) {
+                    respondError(exchange, 503, "Warming up");
+                    return;
+                }
+
+                byte[] body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    respondError(exchange, 413, "Request body larger than " + MAX_BODY_BYTES + " bytes");
+                    return;
+                }
+
+                int[][] puzzle = work.puzzle(body);
+                int[][] solved = solve(puzzle);
+                String solution = solved != null ? PuzzleFormat.format(solved) : BatchSolver.NOT_SOLVABLE;
+
+                StringBuilder sb = new StringBuilder("{\"puzzle\":");
+                BatchExtractor.appendJsonString(PuzzleFormat.format(puzzle), sb);
+                sb.append(",\"solution\":");
+                BatchExtractor.appendJsonString(solution, sb);
+                if (validated && solved == null)
+                    sb.append(",\"unresolved\":true");
+                respond(exchange, 200, sb.append('}').toString());
+            }
+            catch (IllegalArgumentException e) {
+                respondError(exchange, 400, e.getMessage());
+            }
+            catch (IllegalStateException e) {
+                respondError(exchange, 422, e.getMessage());
+            }
+            catch (RuntimeException e) {
+                respondError(exchange, 500, e.toString());
+            }
+        };
+    }
+
+    private int[][] extract(byte[] body) {
+        if (cache == null)
+            return new SudokuExtractor(body, options).getExtractedArray();
+        return cache.extract(body, image -> new SudokuExtractor(image, options).getExtractedArray());
+    }
+
+    private int[][] parse(byte[] body) {
+        return PuzzleFormat.parse(new String(body, StandardCharsets.US_ASCII).trim());
+    }
+
+    // null if the puzzle has no solution
+    private int[][] solve(int[][] puzzle) {
+        // not searched, see BatchExtractor.solve
+        if (PuzzleFormat.hasConflict(puzzle))
+            return null;
+        if (cache != null)
+            return cache.solve(puzzle, engine);
+
+        Solver solver = engine.create(puzzle);
+        return solver.solve() ? solver.getBoard() : null;
+    }
+
+    // null if the body is larger than MAX_BODY_BYTES
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > MAX_BODY_BYTES)
+                return null;
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        BatchExtractor.appendJsonString(message != null ? message : "Unknown error", sb);
+        respond(exchange, status, sb.append('}').toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, "application/json", json);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        SolverEngine engine = args.length > 1 ? SolverEngine.fromName(args[1]) : SolverEngine.ITERATIVE;
+
+        // a misread cell is corrected from the other readings instead of failing the request
+        ExtractorOptions options = new ExtractorOptions().setMetrics(new PipelineMetrics()).setValidated(true);
+        SudokuService service = new SudokuService(port, options, engine);
+        service.start();
+        System.out.println("Listening on http://localhost:" + service.getPort() + "/");
+    }
+
+}
@@ -1,100 +1,481 @@
 package io.github.pmcarpan.sudoku;
-public class SudokuSolver {
 
-    private static final int LENGTH = 9, EMPTY = 0;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SudokuSolver implements Solver {
+
+    private static final int EMPTY = 0;
+    // digits are bits 1 to length of a long, so length can be at most 63
+    static final int MIN_BOX_SIZE = 2, MAX_BOX_SIZE = 7;
+    // levels of the search tree split into parallel tasks
+    private static final int SPLIT_DEPTH = 4;
+    
+    public enum Strategy {
+        // first empty cell in row-major order, digits in increasing order
+        BRUTE_FORCE,
+        // fill naked and hidden singles, then branch on the cell with fewest candidates
+        CONSTRAINT_PROPAGATION,
+        // CONSTRAINT_PROPAGATION with the top levels of the search tree
+        // explored in parallel on the common fork-join pool
+        PARALLEL
+    }
+    
+    private final int boxSize, length;
+    private final long allDigits; // bits 1 to length
+    private final Strategy defaultStrategy;
     private final int[][] board;
+    
+    // grid index of every cell (row * length + col)
+    private final int[] cellGrid;
+    // cell indices of the rows, columns and grids
+    private final int[][] units;
+    
+    // occupancy bitmasks, bit k set means digit k is present
+    private final long[] rowMask, colMask, gridMask;
+    
+    // cells assigned during constraint propagation, so they can be undone
+    private final int[] trail;
+    private int trailSize;
+    
+    private long nodeCount;
+    
+    // set by the first parallel task that finds a solution, null when searching sequentially
+    private AtomicReference<int[][]> sharedSolution;
 
+    // board must be a (n * n) x (n * n) matrix, for n from 2 to 7
+    // 0 marks an empty cell
     public SudokuSolver(int[][] board) {
-        if (board == null || board.length != LENGTH)
+        this(board, Strategy.BRUTE_FORCE);
+    }
+    
+    // strategy is the one used by solve()
+    public SudokuSolver(int[][] board, Strategy strategy) {
+        this(validate(board), strategy);
+        
+        for (int i = 0; i < length; i++) 
+            for (int j = 0; j < length; j++) 
+                if (board[i][j] != EMPTY) 
+                    place(i, j, board[i][j]);
+    }
+    
+    // load the board packed at offset (see PackedBoard and PuzzleStore)
+    // throws IllegalArgumentException if a digit is invalid for the box size
+    public SudokuSolver(ByteBuffer packed, int offset, PackedBoard.Format format, int boxSize, 
+                        Strategy strategy) {
+        this(boxSize, strategy);
+        format.check(boxSize);
+        
+        for (int cell = 0; cell < length * length; cell++) {
+            int digit = PackedBoard.get(packed, offset, format, cell);
+            if (digit > length)
+                throw new IllegalArgumentException("Packed board digit(s) invalid");
+            if (digit != EMPTY)
+                place(cell / length, cell % length, digit);
+        }
+    }
+    
+    // empty board of the box size
+    private SudokuSolver(int boxSize, Strategy strategy) {
+        if (strategy == null)
+            throw new IllegalArgumentException("Strategy is null");
+        if (boxSize < MIN_BOX_SIZE || boxSize > MAX_BOX_SIZE)
+            throw new IllegalArgumentException("Box size invalid");
+        
+        this.boxSize = boxSize;
+        length = boxSize * boxSize;
+        allDigits = ((1L << length) - 1) << 1;
+        defaultStrategy = strategy;
+        
+        board = new int[length][length];
+        
+        cellGrid = new int[length * length];
+        units = new int[3 * length][length];
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < length; j++) {
+                int grid = (i / boxSize) * boxSize + j / boxSize;
+                cellGrid[i * length + j] = grid;
+                units[i][j] = i * length + j;
+                units[length + i][j] = j * length + i;
+                units[2 * length + grid][(i % boxSize) * boxSize + j % boxSize] = i * length + j;
+            }
+        }
+        
+        rowMask = new long[length];
+        colMask = new long[length];
+        gridMask = new long[length];
+        trail = new int[length * length];
+    }
+
+    // copy of the current state of other, for a parallel task
+    private SudokuSolver(SudokuSolver other) {
+        boxSize = other.boxSize;
+        length = other.length;
+        allDigits = other.allDigits;
+        defaultStrategy = other.defaultStrategy;
+        
+        board = new int[length][];
+        for (int i = 0; i < length; i++) {
+            board[i] = other.board[i].clone();
+        }
+        
+        // never modified, so they can be shared
+        cellGrid = other.cellGrid;
+        units = other.units;
+        
+        rowMask = other.rowMask.clone();
+        colMask = other.colMask.clone();
+        gridMask = other.gridMask.clone();
+        trail = new int[length * length];
+        
+        sharedSolution = other.sharedSolution;
+    }
+
+    // returns the box size of the board
+    // throws IllegalArgumentException if board is not a square matrix of side n * n 
+    // (n from 2 to 7) with digits from 0 to n * n
+    static int validate(int[][] board) {
+        if (board == null)
             throw new IllegalArgumentException("Input board invalid");
         
-        for (int i = 0; i < LENGTH; i++) 
-            if (board[i] == null || board[i].length != LENGTH) 
+        int boxSize = (int) Math.round(Math.sqrt(board.length));
+        if (boxSize < MIN_BOX_SIZE || boxSize > MAX_BOX_SIZE || boxSize * boxSize != board.length)
+            throw new IllegalArgumentException("Input board invalid");
+        
+        for (int i = 0; i < board.length; i++) 
+            if (board[i] == null || board[i].length != board.length) 
                 throw new IllegalArgumentException("Input board invalid");
 
         if (!digitsAreValid(board))
             throw new IllegalArgumentException("Input board digit(s) invalid");
         
-        this.board = new int[LENGTH][LENGTH];
-        for (int i = 0; i < LENGTH; i++) {
-            this.board[i] = board[i].clone();
-        }
+        return boxSize;
     }
 
-    private boolean digitsAreValid(int[][] b) {
-        for (int i = 0; i < LENGTH; i++) {
-            for (int j = 0; j < LENGTH; j++) {
-                if (b[i][j] < 0 || b[i][j] > 9)
+    private static boolean digitsAreValid(int[][] b) {
+        for (int i = 0; i < b.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                if (b[i][j] < 0 || b[i][j] > b.length)
                     return false;
             }
         }
         return true;
     }
     
-    private boolean isInRow(int row, int num) {
-        for (int j = 0; j < LENGTH; j++)
-            if (board[row][j] == num)
-                return true;
-
-        return false;
+    private int gridIndex(int row, int col) {
+        return cellGrid[row * length + col];
     }
 
-    private boolean isInCol(int col, int num) {
-        for (int i = 0; i < LENGTH; i++)
-            if (board[i][col] == num)
-                return true;
-
-        return false;
+    // set the digit and mark it in the row, column and grid masks
+    private void place(int row, int col, int num) {
+        long bit = 1L << num;
+        board[row][col] = num;
+        rowMask[row] |= bit;
+        colMask[col] |= bit;
+        gridMask[gridIndex(row, col)] |= bit;
     }
 
-    private boolean isInGrid(int row, int col, int num) {
-        int r = (row / 3) * 3, c = (col / 3) * 3;
-        for (int i = r; i < r + 3; i++) 
-            for (int j = c; j < c + 3; j++) 
-                if (board[i][j] == num)
-                    return true;
-
-        return false;
+    // clear the cell and its digit from the masks
+    private void remove(int row, int col, int num) {
+        long bit = ~(1L << num);
+        board[row][col] = EMPTY;
+        rowMask[row] &= bit;
+        colMask[col] &= bit;
+        gridMask[gridIndex(row, col)] &= bit;
     }
 
-    private boolean isValid(int row, int col, int num) {
-        return !isInRow(row, num) && !isInCol(col, num) && !isInGrid(row, col, num);
+    // digits that can still be placed in the cell, as a bitmask
+    private long candidates(int row, int col) {
+        long used = rowMask[row] | colMask[col] | gridMask[gridIndex(row, col)];
+        return ~used & allDigits;
     }
 
+    @Override
     public boolean solve() {
-        for (int i = 0; i < LENGTH; i++) {
-            for (int j = 0; j < LENGTH; j++) {
+        return solve(defaultStrategy);
+    }
+    
+    public boolean solve(Strategy strategy) {
+        if (strategy == null)
+            throw new IllegalArgumentException("Strategy is null");
+        
+        nodeCount = 0;
+        
+        switch (strategy) {
+            case CONSTRAINT_PROPAGATION:
+                trailSize = 0;
+                return solvePropagating();
+            case PARALLEL:
+                trailSize = 0;
+                return solveParallel();
+            default:
+                return solveBruteForce(0, 0);
+        }
+    }
+    
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+    
+    @Override
+    public int[][] getBoard() {
+        int[][] copy = new int[length][];
+        for (int i = 0; i < length; i++)
+            copy[i] = board[i].clone();
+        return copy;
+    }
+    
+    public int getBoxSize() {
+        return boxSize;
+    }
+
+    // cells before (row, col) are already filled, so the scan resumes from there
+    private boolean solveBruteForce(int row, int col) {
+        nodeCount++;
+        for (int i = row; i < length; i++) {
+            for (int j = (i == row ? col : 0); j < length; j++) {
                 if (board[i][j] == EMPTY) {
-                    for (int k = 1; k <= LENGTH; k++) {
-                        if (isValid(i, j, k)) {
-                            board[i][j] = k;
-                            if (solve())
-                                return true;
-                            else
-                                board[i][j] = EMPTY;
-                        } // if isValid
-                    } // for k
+                    // try the candidates in increasing order
+                    for (long free = candidates(i, j); free != 0; free &= free - 1) {
+                        int k = Long.numberOfTrailingZeros(free);
+                        place(i, j, k);
+                        if (solveBruteForce(i, j + 1))
+                            return true;
+                        else
+                            remove(i, j, k);
+                    } // for candidates
                     return false;
                 } // if EMPTY
-            } //for j
+            } // for j
         } // for i
         return true;
     }
+    
+    private boolean solvePropagating() {
+        nodeCount++;
+        
+        // another parallel task has already found a solution
+        if (sharedSolution != null && sharedSolution.get() != null)
+            return false;
+        
+        int mark = trailSize;
+        
+        if (!propagate()) {
+            undo(mark);
+            return false;
+        }
+        
+        int best = selectCell();
+        if (best == -1)
+            return true;
+        
+        for (long free = candidates(best / length, best % length); free != 0; free &= free - 1) {
+            int k = Long.numberOfTrailingZeros(free);
+            int guessMark = trailSize;
+            assign(best, k);
+            if (solvePropagating())
+                return true;
+            undo(guessMark);
+        }
+        
+        undo(mark);
+        return false;
+    }
+    
+    // the empty cell with the fewest candidates, -1 if the board is full
+    private int selectCell() {
+        int best = -1, bestCount = length + 1;
+        for (int cell = 0; cell < length * length && bestCount > 2; cell++) {
+            int i = cell / length, j = cell % length;
+            if (board[i][j] == EMPTY) {
+                int count = Long.bitCount(candidates(i, j));
+                if (count < bestCount) {
+                    best = cell;
+                    bestCount = count;
+                }
+            }
+        }
+        return best;
+    }
+    
+    private boolean solveParallel() {
+        AtomicReference<int[][]> solution = new AtomicReference<>();
+        AtomicLong nodes = new AtomicLong();
+        
+        SudokuSolver root = new SudokuSolver(this);
+        root.sharedSolution = solution;
+        ForkJoinPool.commonPool().invoke(new BranchTask(root, 0, nodes));
+        
+        nodeCount = nodes.get();
+        
+        int[][] solved = solution.get();
+        if (solved == null)
+            return false;
+        
+        for (int i = 0; i < length; i++) 
+            for (int j = 0; j < length; j++) 
+                if (board[i][j] == EMPTY) 
+                    place(i, j, solved[i][j]);
+        return true;
+    }
+    
+    // one branch of the parallel search, working on its own copy of the board
+    // the first task to find a solution publishes it, which makes the 
+    // remaining tasks return at their next search node
+    private static class BranchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final SudokuSolver solver;
+        private final int depth;
+        private final AtomicLong nodes;
+        
+        BranchTask(SudokuSolver solver, int depth, AtomicLong nodes) {
+            this.solver = solver;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+        
+        @Override
+        protected void compute() {
+            AtomicReference<int[][]> solution = solver.sharedSolution;
+            
+            if (depth >= SPLIT_DEPTH) {
+                if (solver.solvePropagating())
+                    solution.compareAndSet(null, solver.getBoard());
+                nodes.addAndGet(solver.nodeCount);
+                return;
+            }
+            
+            nodes.incrementAndGet();
+            if (solution.get() != null || !solver.propagate())
+                return;
+            
+            int best = solver.selectCell();
+            if (best == -1) {
+                solution.compareAndSet(null, solver.getBoard());
+                return;
+            }
+            
+            int length = solver.length;
+            List<BranchTask> branches = new ArrayList<>();
+            for (long free = solver.candidates(best / length, best % length); free != 0; free &= free - 1) {
+                SudokuSolver branch = new SudokuSolver(solver);
+                branch.assign(best, Long.numberOfTrailingZeros(free));
+                branches.add(new BranchTask(branch, depth + 1, nodes));
+            }
+            invokeAll(branches);
+        }
+    }
+    
+    // fill naked and hidden singles until none are left
+    // returns false if a contradiction is found
+    private boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            
+            // naked singles: cells with exactly one candidate
+            for (int cell = 0; cell < length * length; cell++) {
+                int i = cell / length, j = cell % length;
+                if (board[i][j] == EMPTY) {
+                    long free = candidates(i, j);
+                    if (free == 0)
+                        return false;
+                    if ((free & (free - 1)) == 0) {
+                        assign(cell, Long.numberOfTrailingZeros(free));
+                        changed = true;
+                    }
+                }
+            }
+            
+            // hidden singles: digits with exactly one place in a unit
+            for (int[] unit : units) {
+                long once = 0, twice = 0, present = 0;
+                for (int cell : unit) {
+                    int i = cell / length, j = cell % length;
+                    if (board[i][j] == EMPTY) {
+                        long free = candidates(i, j);
+                        twice |= once & free;
+                        once |= free;
+                    }
+                    else {
+                        present |= 1L << board[i][j];
+                    }
+                }
+                
+                long missing = allDigits & ~present;
+                if ((missing & ~once) != 0)
+                    return false;
+                
+                for (long singles = once & ~twice & missing; singles != 0; singles &= singles - 1) {
+                    int k = Long.numberOfTrailingZeros(singles);
+                    for (int cell : unit) {
+                        int i = cell / length, j = cell % length;
+                        if (board[i][j] == EMPTY && (candidates(i, j) & (1L << k)) != 0) {
+                            assign(cell, k);
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    
+    // place a digit and record the cell on the trail
+    private void assign(int cell, int num) {
+        place(cell / length, cell % length, num);
+        trail[trailSize++] = cell;
+    }
+    
+    // remove the cells assigned since the trail was at mark
+    private void undo(int mark) {
+        while (trailSize > mark) {
+            int cell = trail[--trailSize];
+            int i = cell / length, j = cell % length;
+            remove(i, j, board[i][j]);
+        }
+    }
 
     public String toString() {
+        return toString(board);
+    }
+    
+    // the boxed text layout shared by all solvers
+    // digits are right aligned to the width of the largest digit
+    static String toString(int[][] board) {
+        int length = board.length;
+        int boxSize = (int) Math.round(Math.sqrt(length));
+        int width = String.valueOf(length).length();
+        
+        StringBuilder separator = new StringBuilder();
+        for (int i = 0; i < boxSize * (boxSize * (width + 1) + 2) + 1; i++)
+            separator.append('-');
+        separator.append('\n');
+        
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < LENGTH; i++) {
-            if (i % 3 == 0) 
-                sb.append("-------------------------\n");
-            for (int j = 0; j < LENGTH; j++) {
-                if (j % 3 == 0)
+        for (int i = 0; i < length; i++) {
+            if (i % boxSize == 0) 
+                sb.append(separator);
+            for (int j = 0; j < length; j++) {
+                if (j % boxSize == 0)
                     sb.append("| ");
-                sb.append(board[i][j] + " ");
+                String digit = String.valueOf(board[i][j]);
+                for (int w = digit.length(); w < width; w++)
+                    sb.append(' ');
+                sb.append(digit + " ");
             }
             sb.append("| ");
             sb.append("\n");
         }
-        sb.append("-------------------------\n");
+        sb.append(separator);
         return sb.toString();
     }
 
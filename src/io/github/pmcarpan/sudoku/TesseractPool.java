@@ -0,0 +1,221 @@
+package io.github.pmcarpan.sudoku;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.TessAPI1;
+
+// bounded pool of Tesseract engines (TessBaseAPI handles of TessAPI1) with the same configuration
+// the constructor initializes the first engines, checkout adds one while all are busy and the
+// pool is below its size, and all are kept until close, instead of loading the language data
+// on every call as ITesseract.doOCR and getWords do
+// an engine is not thread safe, so a thread checks one out, uses it alone and returns it
+// checkout blocks while none is idle and the pool is full
+// e.g.
+//     ITessAPI.TessBaseAPI engine = pool.checkout();
+//     try {
+//         TessAPI1.TessBaseAPISetImage(engine, pixels, width, height, 1, width);
+//         ... TessAPI1.TessBaseAPIGetUTF8Text(engine) ...
+//     }
+//     finally {
+//         pool.checkin(engine);
+//     }
+public class TesseractPool implements AutoCloseable {
+
+    private final int size, pageSegMode;
+    private final String dataPath;
+    private final BlockingQueue<ITessAPI.TessBaseAPI> idle;
+    // engines created so far, never more than size
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile boolean closed;
+
+    // checkouts, checkouts that found no idle engine, and their wait times
+    private final AtomicLong checkouts = new AtomicLong(), waits = new AtomicLong(),
+            totalWaitNanos = new AtomicLong(), maxWaitNanos = new AtomicLong();
+
+    // up to size engines for digits only, reading the given page segmentation mode
+    // (see ITessAPI.TessPageSegMode), with the eng data of TESSDATA_PREFIX or the working directory
+    // initialSize of them are initialized now, the others by checkout when they are needed
+    // throws IllegalArgumentException if size is not positive or initialSize is not between 1 and size
+    // throws IllegalStateException if an engine cannot be initialized (e.g. the data is missing)
+    public TesseractPool(int initialSize, int size, int pageSegMode) {
+        if (size < 1)
+            throw new IllegalArgumentException("Pool size must be positive");
+        if (initialSize < 1 || initialSize > size)
+            throw new IllegalArgumentException("Initial pool size must be between 1 and " + size);
+
+        this.size = size;
+        this.pageSegMode = pageSegMode;
+        dataPath = System.getenv("TESSDATA_PREFIX") != null ? System.getenv("TESSDATA_PREFIX") : "./";
+        idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < initialSize; i++) {
+                created.incrementAndGet();
+                idle.add(create());
+            }
+        }
+        catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // size engines, all initialized now
+    public TesseractPool(int size, int pageSegMode) {
+        this(size, size, pageSegMode);
+    }
+
+    // one engine per core, reading a single character
+    public TesseractPool() {
+        this(Runtime.getRuntime().availableProcessors(), ITessAPI.TessPageSegMode.PSM_SINGLE_CHAR);
+    }
+
+    // an idle engine, a new one if none is idle and the pool is not full,
+    // or else waiting for one to be returned
+    // throws IllegalStateException if the pool is closed or a new engine cannot be initialized
+    public ITessAPI.TessBaseAPI checkout() throws InterruptedException {
+        checkOpen();
+        ITessAPI.TessBaseAPI engine = idle.poll();
+        if (engine == null)
+            engine = grow();
+        if (engine == null) {
+            long start = System.nanoTime();
+            engine = idle.take();
+            recordWait(System.nanoTime() - start);
+        }
+        checkouts.incrementAndGet();
+        return engine;
+    }
+
+    // same as checkout, but returns null if no engine is returned within the timeout
+    public ITessAPI.TessBaseAPI checkout(long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        ITessAPI.TessBaseAPI engine = idle.poll();
+        if (engine == null)
+            engine = grow();
+        if (engine == null) {
+            long start = System.nanoTime();
+            engine = idle.poll(timeout, unit);
+            recordWait(System.nanoTime() - start);
+            if (engine == null)
+                return null;
+        }
+        checkouts.incrementAndGet();
+        return engine;
+    }
+
+    // return an engine got from checkout, an engine returned to a closed pool is released
+    // throws IllegalArgumentException if engine is null
+    // throws IllegalStateException if the pool is already full
+    public void checkin(ITessAPI.TessBaseAPI engine) {
+        if (engine == null)
+            throw new IllegalArgumentException("Engine is null");
+        if (!idle.offer(engine))
+            throw new IllegalStateException("Engine returned to a full pool");
+        if (closed)
+            releaseIdle();
+    }
+
+    // release the idle engines, the ones checked out are released when they are returned
+    // checkout throws IllegalStateException after it
+    @Override
+    public void close() {
+        closed = true;
+        releaseIdle();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // a new engine, null if the pool is already full
+    private ITessAPI.TessBaseAPI grow() {
+        int count;
+        do {
+            count = created.get();
+            if (count >= size)
+                return null;
+        } while (!created.compareAndSet(count, count + 1));
+
+        try {
+            return create();
+        }
+        catch (RuntimeException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // throws IllegalStateException if the engine cannot be initialized
+    private ITessAPI.TessBaseAPI create() {
+        ITessAPI.TessBaseAPI engine = TessAPI1.TessBaseAPICreate();
+        if (TessAPI1.TessBaseAPIInit2(engine, dataPath, "eng", ITessAPI.TessOcrEngineMode.OEM_DEFAULT) != 0) {
+            TessAPI1.TessBaseAPIDelete(engine);
+            throw new IllegalStateException("Could not initialize Tesseract with the eng data in " + dataPath);
+        }
+        TessAPI1.TessBaseAPISetPageSegMode(engine, pageSegMode);
+        TessAPI1.TessBaseAPISetVariable(engine, "tessedit_char_whitelist", "0123456789");
+        return engine;
+    }
+
+    private void releaseIdle() {
+        ITessAPI.TessBaseAPI engine;
+        while ((engine = idle.poll()) != null) {
+            TessAPI1.TessBaseAPIEnd(engine);
+            TessAPI1.TessBaseAPIDelete(engine);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Pool is closed");
+    }
+
+    private void recordWait(long nanos) {
+        waits.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // the most engines the pool holds
+    public int getSize() {
+        return size;
+    }
+
+    // engines initialized so far
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCheckoutCount() {
+        return checkouts.get();
+    }
+
+    // checkouts that had to wait for an engine to be returned
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public String toString() {
+        return String.format("TesseractPool[size=%d, created=%d, idle=%d, closed=%b, checkouts=%d, waits=%d, total wait=%.3f ms, max wait=%.3f ms]",
+                             size, getCreatedCount(), getIdleCount(), closed, getCheckoutCount(), getWaitCount(),
+                             getTotalWaitNanos() / 1e6, getMaxWaitNanos() / 1e6);
+    }
+
+}